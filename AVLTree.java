@@ -6,7 +6,22 @@
  *
  */
 
+import java.io.IOException;
 import java.lang.Math;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.OptionalInt;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 
 
 /**
@@ -20,10 +35,14 @@ import java.lang.Math;
  *    - value : This is the value of the node.
  *    - height: Height of the node in the tree. A node's height is the maximum
  *              number of edges to its deepest leaf of its two subtrees.
+ *    - size  : # of nodes in the subtree rooted at this node (itself included),
+ *              used by the order-statistic queries (rank / select).
+ *    - hash  : sum of hashOf(v) over the values v of the subtree. The sum does
+ *              not depend on the subtree's shape, so two trees holding the
+ *              same values have the same root hash however they were built.
  *
  *  Additional candidate values that can be considered (but currently not
  *  implemented):
- *    - size: # of nodes in a node's subtrees
  *    - bf  : the nodes's balance factor, e.g., {-1, 0, 1}
  *
  */
@@ -31,13 +50,26 @@ import java.lang.Math;
 class Node {
     int value;                      // the node's value
     int height;                     // height of node based on its [sub]trees
+    int size;                       // # of nodes in the subtree rooted here
+    long hash;                      // order-independent hash of the subtree's values
     Node leftChild, rightChild;     // left and right subtrees
 
     public Node(int data) {         // parameterized constructor
         value = data;
         height = 0;
+        size = 1;
+        hash = hashOf(data);
         leftChild = rightChild = null;
     }
+
+    // Well-mixed 64-bit hash of one value (the SplitMix64 finalizer), so that
+    // sums of different sets of values rarely collide
+    static long hashOf(int value) {
+        long z = value * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
 }
 
 
@@ -61,92 +93,1195 @@ class Node {
  *   boolean checkEmpty()        - Returns boolean value if tree is empty or not
  *   void    insert(int value)   - inserts 'value' into the tree
  *   void    delete(int value)   - removes 'value' from the tree
+ *   void    insertAll(int[] values) - inserts every value of the batch
+ *   void    deleteAll(int[] values) - removes every value of the batch
+ *   boolean removeIf(IntPredicate filter) - removes every value matching 'filter'
+ *   static LUC_AVLTree union(LUC_AVLTree a, LUC_AVLTree b)        - values in a or b
+ *   static LUC_AVLTree intersection(LUC_AVLTree a, LUC_AVLTree b) - values in both a and b
+ *   static LUC_AVLTree difference(LUC_AVLTree a, LUC_AVLTree b)   - values in a but not b
+ *   static LUC_AVLTree symmetricDifference(LUC_AVLTree a, LUC_AVLTree b) - values in exactly one
  *   String  preorderTraversal() - returns a preorder traversal of tree in a String
+ *   int     size()              - returns the number of values in the tree
+ *   int     rank(int value)     - # of values in the tree smaller than 'value'
+ *   int     select(int k)       - returns the k-th smallest value (0-based)
+ *   int     countInRange(int lo, int hi) - # of values v with lo <= v <= hi
+ *   long    contentHash()       - order-independent hash of all values, O(1)
+ *   long    hashInRange(int lo, int hi) - hash of the values v with lo <= v <= hi
+ *   boolean contentEquals(LUC_AVLTree other) - true if both trees hold the same values
+ *   String  checkInvariants()   - first node breaking an AVL invariant, or null; O(n)
+ *   String  checkInvariantsSampled(int paths) - the same checks on random paths only
+ *   FrozenAVLTree freeze()      - read-only copy laid out in one array for fast lookups
+ *   static AVLTreeMetrics.Snapshot metrics() - rotation / path / update counters (see below)
+ *   static void resetMetrics()  - sets the counters back to zero
+ *   List<int[]> differingRanges(LUC_AVLTree other, int maxKeys) - key ranges whose contents differ
+ *   PrimitiveIterator.OfInt preorderIterator()   - cursor over the values in pre-order
+ *   PrimitiveIterator.OfInt inorderIterator()    - cursor over the values in sorted order
+ *   PrimitiveIterator.OfInt postorderIterator()  - cursor over the values in post-order
+ *   PrimitiveIterator.OfInt levelOrderIterator() - cursor over the values level by level
+ *   PrimitiveIterator.OfInt descendingIterator() - cursor over the values in reverse order
+ *   PrimitiveIterator.OfInt rangeIterator(int lo, int hi)           - ascending cursor over [lo, hi)
+ *   PrimitiveIterator.OfInt descendingRangeIterator(int lo, int hi) - descending cursor over [lo, hi)
+ *   boolean contains(int value)  - returns true if 'value' is in the tree
+ *   OptionalInt floor(int value)   - greatest value <= 'value', if any
+ *   OptionalInt ceiling(int value) - least value >= 'value', if any
+ *   OptionalInt lower(int value)   - greatest value <  'value', if any
+ *   OptionalInt higher(int value)  - least value >  'value', if any
+ *   void    writePreorder(Appendable out)          - streams preorderTraversal() to 'out'
+ *   void    writePreorder(WritableByteChannel out) - streams preorderTraversal() to 'out'
+ *   void    writeTo(WritableByteChannel out)       - saves the tree in the binary format of TreeCodec
+ *   static LUC_AVLTree readFrom(ReadableByteChannel in) - rebuilds a tree saved by writeTo()
+ *
+ *  The order-statistic methods (size, rank, select, countInRange) run in
+ *  O(log n) using the subtree sizes kept in each node.
+ *
+ *  Each node also keeps the hash of its subtree's values (see Node), kept up
+ *  to date wherever sizes are. contentHash() is therefore O(1): trees whose
+ *  hashes or sizes differ are known to differ without looking further.
+ *  contentEquals() confirms equality with an in-order merge of both trees,
+ *  cut into rank ranges that are compared in parallel and abandoned as soon
+ *  as one of them finds a difference. differingRanges() bisects the key
+ *  space using hashInRange(), skipping every range whose hash matches.
+ *
+ *  Constructing the tree with 'new LUC_AVLTree(true)' selects the iterative
+ *  update path: insert and delete walk down with an explicit, reusable path
+ *  stack instead of recursing, and retrace upward only while the subtree
+ *  height keeps changing (ancestors above that point just get their size
+ *  adjusted). No allocation is done per operation other than the new Node.
+ *  Both paths produce identical trees.
+ *
+ *  The LUC_AVLTree(int[]), LUC_AVLTree(int[], boolean) and
+ *  LUC_AVLTree(IntStream) constructors bulk-load a tree in O(n) without any
+ *  rotations (see buildBalanced()); only the second one can select the
+ *  iterative update path.
+ *
+ *  insertAll() and deleteAll() apply a whole batch of m values at once with
+ *  the join-based union and difference algorithms (see join() and split()),
+ *  in O(m log(n/m + 1)) instead of m separate O(log n) descents. The shape
+ *  they build can differ from the one the same values inserted or deleted one
+ *  at a time would give; it is a valid AVL tree either way.
+ *
+ *  removeIf() tests every value in one in-order pass and, unless only a few
+ *  values match, rebuilds the tree from the surviving nodes in O(n) (see
+ *  relinkBalanced()).
+ *
+ *  The static set operations (union, intersection, difference,
+ *  symmetricDifference) use the same join-based algorithms with a tree on
+ *  both sides, and run the two independent halves of every split as
+ *  fork-join tasks in the common ForkJoinPool, so they scale with the number
+ *  of cores. Both inputs are copied first and left unchanged.
+ *
+ *  freeze() copies the values, in O(n), into a FrozenAVLTree: an immutable
+ *  implicit tree in a single int[] (Eytzinger order) searched without
+ *  branches or pointer chasing, for lookup-only replicas whose trees are
+ *  far larger than the CPU caches.
+ *
+ *  Starting the JVM with -Dluc.avl.metrics=true turns on the counters of
+ *  AVLTreeMetrics (rotations by kind, search-path lengths, node updates,
+ *  duplicates and misses), shared by all trees. When it is off, the
+ *  instrumentation is compiled away and costs nothing.
+ *
+ *  The traversal cursors are not recursive and each keeps a single stack of
+ *  at most MAX_PATH nodes, so walking or exporting a tree of any size takes
+ *  constant extra memory. A cursor must not be used after the tree has been
+ *  modified. The range cursors are lazy: they start from the O(log n) path to
+ *  the first value in range and visit O(log n + k) nodes to return k values.
+ *  The search methods (contains, floor, ceiling, lower, higher) walk a single
+ *  root-to-leaf path.
  *
  */
 
-class LUC_AVLTree {
-    private Node rootNode;           // The root node of the AVL Tree
+class LUC_AVLTree {
+    // An AVL tree of n nodes has height < 1.45 * log2(n + 2), so 64 entries
+    // cover any tree whose size fits in an int.
+    private static final int MAX_PATH = 64;
+
+    // Exclusive upper bound that admits every int value
+    private static final long FULL_RANGE_END = (long) Integer.MAX_VALUE + 1;
+
+    // Set operations, and the combined input size below which a sub-problem
+    // is finished in the current thread instead of being forked.
+    private static final int UNION = 0, INTERSECTION = 1, DIFFERENCE = 2, SYMMETRIC_DIFFERENCE = 3;
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    // Smallest # of values contentEquals() hands to one parallel comparison
+    private static final int COMPARE_CHUNK = 1 << 14;
+    private Node rootNode;           // The root node of the AVL Tree
+    private final Node[] pathStack;  // Ancestors of the current node; null unless iterative
+    private int pathLength;          // Nodes visited by the current update; metrics only
+
+    public LUC_AVLTree()              { this(false); }           // Constructor
+    public LUC_AVLTree(boolean iterative) {
+        rootNode = null;
+        pathStack = iterative ? new Node[MAX_PATH] : null;
+    }
+
+    /**
+     *  Constructor: LUC_AVLTree(int[] values, boolean iterative)
+     *
+     *  Bulk-loads the tree from 'values'. Input that is already strictly
+     *  ascending is used as is and the tree is built in O(n); otherwise a
+     *  sorted copy with the duplicates dropped is built instead (O(n log n)),
+     *  so the result holds the same values as inserting them one by one,
+     *  though not necessarily in the same shape. The caller's array is never
+     *  modified.
+     *
+     *  @param  values - values to load, ideally sorted and without duplicates
+     *  @param  iterative - selects the update path of later inserts and
+     *                      deletes, as in LUC_AVLTree(boolean)
+     */
+
+    public LUC_AVLTree(int[] values)  { this(values, false); }
+    public LUC_AVLTree(int[] values, boolean iterative) {
+        this(iterative);
+
+        values = sortedDistinct(values);
+        rootNode = buildBalanced(values, 0, values.length - 1);
+    }
+
+    public LUC_AVLTree(IntStream values) { this(values.toArray()); }
+
+    public void removeAll()           { rootNode = null; }       // Make tree empty
+    public long contentHash()         { return getHash(rootNode); }
+    public boolean checkEmpty()       { if (rootNode == null) return true; else return false; }
+    public void insert(int value) {
+        int before = AVLTreeMetrics.ENABLED ? startMetrics() : 0;
+        if (pathStack != null) insertIterative(value);
+        else rootNode = insertElement(value, rootNode);
+        if (AVLTreeMetrics.ENABLED) AVLTreeMetrics.recordInsert(pathLength, size() == before);
+    }
+    public void delete(int value) {
+        int before = AVLTreeMetrics.ENABLED ? startMetrics() : 0;
+        if (pathStack != null) deleteIterative(value);
+        else rootNode = deleteElement(value, rootNode);
+        if (AVLTreeMetrics.ENABLED) AVLTreeMetrics.recordDelete(pathLength, size() == before);
+    }
+
+    // Only called with metrics enabled: clears the path length of the update
+    // about to run and returns the size before it
+    private int startMetrics() {
+        pathLength = 0;
+        return size();
+    }
+
+    public FrozenAVLTree freeze()     { return new FrozenAVLTree(inorderIterator(), size()); }
+
+    public static AVLTreeMetrics.Snapshot metrics() { return AVLTreeMetrics.snapshot(); }
+    public static void resetMetrics()               { AVLTreeMetrics.reset(); }
+
+
+    /**
+     *  Method: insertAll
+     *
+     *  Inserts every value of 'values' into the tree. The batch is sorted
+     *  (unless it is already strictly ascending) and merged into the tree
+     *  with union(), which only descends into the parts of the tree the batch
+     *  falls into. The caller's array is never modified.
+     *
+     *  @param  values - values to insert, in any order; duplicates are ignored
+     */
+
+    public void insertAll(int[] values) {
+        values = sortedDistinct(values);
+        rootNode = union(rootNode, values, 0, values.length - 1, new Split());
+    }
+
+
+    /**
+     *  Method: deleteAll
+     *
+     *  Removes every value of 'values' from the tree, the batch counterpart
+     *  of delete(). As with insertAll(), the batch is sorted first and then
+     *  applied in one pass with difference().
+     *
+     *  @param  values - values to delete, in any order; absent values are ignored
+     */
+
+    public void deleteAll(int[] values) {
+        values = sortedDistinct(values);
+        rootNode = difference(rootNode, values, 0, values.length - 1, new Split());
+    }
+
+
+
+    /**
+     *  Method: removeIf
+     *
+     *  Removes every value for which 'filter' returns true. The filter is
+     *  called once per value, in ascending order, and the matching values
+     *  are collected on the way. If only a few values match, they are then
+     *  deleted one by one (O(r log n) for r matches); otherwise the tree is
+     *  rebuilt from the surviving nodes in a second in-order pass, which
+     *  re-links the existing nodes into a balanced tree in O(n) with no
+     *  rotations.
+     *
+     *  @param  filter - returns true for the values to remove
+     *
+     *  @return true if any value was removed
+     */
+
+    public boolean removeIf(IntPredicate filter) {
+        int[] removed = new int[16];
+        int count = 0;
+
+        for (PrimitiveIterator.OfInt it = inorderIterator(); it.hasNext(); ) {
+            int value = it.nextInt();
+            if (filter.test(value)) {
+                if (count == removed.length)
+                    removed = Arrays.copyOf(removed, 2 * count);
+                removed[count++] = value;
+            }
+        }
+
+        if (count == 0)
+            return false;
+
+        // r deletes cost about r * log2(n) steps against n for the rebuild;
+        // measured on 1M keys, the crossover is close to r = n / log2(n).
+        int size = size();
+        if ((long) count * (32 - Integer.numberOfLeadingZeros(size)) < size) {
+            for (int i = 0; i < count; i++)
+                delete(removed[i]);
+        } else {
+            Survivors survivors = new Survivors(nodeIterator(false), removed, count);
+            rootNode = relinkBalanced(survivors, size - count);
+        }
+        return true;
+    }
+
+
+
+    /**
+     *  Method: contentEquals
+     *
+     *  Returns true if this tree and 'other' hold the same values, whatever
+     *  their shapes. Different sizes or content hashes answer false in O(1).
+     *  Otherwise the sorted sequences are compared: they are cut into rank
+     *  ranges of at least COMPARE_CHUNK values, each compared by an in-order
+     *  merge in the common ForkJoinPool, and every range stops as soon as any
+     *  of them has found a difference.
+     *
+     *  @param  other - tree to compare with
+     *
+     *  @return true if both trees hold the same set of values
+     */
+
+    public boolean contentEquals(LUC_AVLTree other) {
+        int size = size();
+        if ((size != other.size()) || (contentHash() != other.contentHash()))
+            return false;
+        if (size == 0)
+            return true;
+
+        int chunks = Math.max(1, Math.min(4 * ForkJoinPool.getCommonPoolParallelism(),
+                                          size / COMPARE_CHUNK));
+        AtomicBoolean differs = new AtomicBoolean();
+        IntStream ranges = IntStream.range(0, chunks);
+        if (chunks > 1)
+            ranges = ranges.parallel();
+
+        return ranges.allMatch(chunk -> sameValues(other,
+                                                   (int) ((long) size * chunk / chunks),
+                                                   (int) ((long) size * (chunk + 1) / chunks),
+                                                   differs));
+    }
+
+    // Compare the values of rank 'from' (inclusive) to 'to' (exclusive) in
+    // this tree and 'other', giving up early once 'differs' is set
+    private boolean sameValues(LUC_AVLTree other, int from, int to, AtomicBoolean differs) {
+        int first = select(from);
+        if (first != other.select(from)) {
+            differs.set(true);
+            return false;
+        }
+
+        PrimitiveIterator.OfInt mine   = rangeIterator(first, FULL_RANGE_END, false);
+        PrimitiveIterator.OfInt theirs = other.rangeIterator(first, FULL_RANGE_END, false);
+        for (int i = from; i < to; i++) {
+            if (mine.nextInt() != theirs.nextInt()) {
+                differs.set(true);
+                return false;
+            }
+            if (((i & 1023) == 0) && differs.get())
+                return false;
+        }
+        return true;
+    }
+
+
+    /**
+     *  Method: differingRanges
+     *
+     *  Returns the key ranges in which this tree and 'other' hold different
+     *  values, as {lo, hi} pairs (both inclusive) in ascending order. A range
+     *  with the same count and hash in both trees is skipped; any other range
+     *  is cut in two at the median of the tree holding more values in it,
+     *  until it holds at most 'maxKeys' values in either tree. Each step
+     *  costs O(log n), and d differences are located in O(d log^2 n) at
+     *  worst, independent of how much of the trees is identical.
+     *
+     *  @param  other   - tree to compare with
+     *  @param  maxKeys - largest # of values a reported range may hold (>= 1)
+     *
+     *  @return the differing ranges; empty if the trees hold the same values
+     */
+
+    public List<int[]> differingRanges(LUC_AVLTree other, int maxKeys) {
+        List<int[]> ranges = new ArrayList<>();
+        differingRanges(other, Integer.MIN_VALUE, Integer.MAX_VALUE, Math.max(1, maxKeys), ranges);
+        return ranges;
+    }
+
+    private void differingRanges(LUC_AVLTree other, int lo, int hi, int maxKeys, List<int[]> ranges) {
+        int mine = countInRange(lo, hi), theirs = other.countInRange(lo, hi);
+        if ((mine == theirs) && (hashInRange(lo, hi) == other.hashInRange(lo, hi)))
+            return;
+
+        if (Math.max(mine, theirs) <= maxKeys) {
+            ranges.add(new int[] { lo, hi });
+            return;
+        }
+
+        // The median is above 'lo' since the larger side holds at least two values
+        LUC_AVLTree larger = mine >= theirs ? this : other;
+        int mid = larger.select(larger.rank(lo) + Math.max(mine, theirs) / 2);
+
+        differingRanges(other, lo, mid - 1, maxKeys, ranges);
+        differingRanges(other, mid, hi, maxKeys, ranges);
+    }
+
+    public static LUC_AVLTree union(LUC_AVLTree a, LUC_AVLTree b)        { return setOperation(UNION, a, b); }
+    public static LUC_AVLTree intersection(LUC_AVLTree a, LUC_AVLTree b) { return setOperation(INTERSECTION, a, b); }
+    public static LUC_AVLTree difference(LUC_AVLTree a, LUC_AVLTree b)   { return setOperation(DIFFERENCE, a, b); }
+    public static LUC_AVLTree symmetricDifference(LUC_AVLTree a, LUC_AVLTree b) {
+        return setOperation(SYMMETRIC_DIFFERENCE, a, b);
+    }
+
+    // Copy both inputs (the algorithms re-link the nodes they are given),
+    // then combine the copies in the common ForkJoinPool.
+    private static LUC_AVLTree setOperation(int operation, LUC_AVLTree a, LUC_AVLTree b) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        LUC_AVLTree result = new LUC_AVLTree();
+
+        Node left  = pool.invoke(result.new CopyTask(a.rootNode));
+        Node right = pool.invoke(result.new CopyTask(b.rootNode));
+        result.rootNode = pool.invoke(result.new SetOperationTask(operation, left, right));
+        return result;
+    }
+
+    public String preorderTraversal() {
+        StringBuilder sb = new StringBuilder();
+        for (PrimitiveIterator.OfInt it = preorderIterator(); it.hasNext(); )
+            sb.append(it.nextInt()).append(' ');
+        return sb.toString();
+    }
+
+    public PrimitiveIterator.OfInt preorderIterator()   { return new PreorderIterator(rootNode); }
+    public PrimitiveIterator.OfInt inorderIterator()    { return rangeIterator(Integer.MIN_VALUE, FULL_RANGE_END, false); }
+    public PrimitiveIterator.OfInt descendingIterator() { return rangeIterator(Integer.MIN_VALUE, FULL_RANGE_END, true); }
+    public PrimitiveIterator.OfInt postorderIterator()  { return new PostorderIterator(rootNode); }
+    public PrimitiveIterator.OfInt levelOrderIterator() { return new LevelOrderIterator(rootNode); }
+
+    public PrimitiveIterator.OfInt rangeIterator(int lo, int hi)           { return rangeIterator(lo, hi, false); }
+    public PrimitiveIterator.OfInt descendingRangeIterator(int lo, int hi) { return rangeIterator(lo, hi, true); }
+
+    private PrimitiveIterator.OfInt rangeIterator(long lo, long hi, boolean descending) {
+        return new RangeIterator(rootNode, lo, hi, descending);
+    }
+
+    // In-order cursor over the nodes themselves, for subclasses that attach
+    // data to them; see RangeIterator.nextNode()
+    RangeIterator nodeIterator(boolean descending) {
+        return new RangeIterator(rootNode, Integer.MIN_VALUE, FULL_RANGE_END, descending);
+    }
+
+    public void writePreorder(Appendable out) throws IOException {
+        TraversalWriter.write(preorderIterator(), out);
+    }
+
+    public void writePreorder(WritableByteChannel out) throws IOException {
+        TraversalWriter.write(preorderIterator(), out);
+    }
+
+
+    /**
+     *  Method: writeTo
+     *
+     *  Saves the tree to 'out' in the binary format of TreeCodec, with the
+     *  values in pre-order. The pre-order of a binary search tree fixes its
+     *  shape, so readFrom() rebuilds exactly this tree.
+     *
+     *  @param  out - channel to write to; it is not closed
+     */
+
+    public void writeTo(WritableByteChannel out) throws IOException {
+        TreeCodec.Writer writer = new TreeCodec.Writer(out, TreeCodec.AVL_TREE, size());
+        for (PrimitiveIterator.OfInt it = preorderIterator(); it.hasNext(); )
+            writer.writeInt(it.nextInt());
+        writer.finish();
+    }
+
+
+    /**
+     *  Method: readFrom
+     *
+     *  Rebuilds a tree saved by writeTo() in O(n), without searching the
+     *  tree or rotating: each value in pre-order is the left child of the
+     *  node before it, or the right child of the nearest open ancestor whose
+     *  bounds admit it (see buildPreorder()). The input is checked as it is
+     *  read; a file that does not hold the pre-order of a valid AVL tree is
+     *  rejected.
+     *
+     *  @param  in - channel to read from; it is not closed
+     *
+     *  @return the tree, using the recursive update path
+     */
+
+    public static LUC_AVLTree readFrom(ReadableByteChannel in) throws IOException {
+        LUC_AVLTree tree = new LUC_AVLTree();
+        tree.rootNode = tree.buildPreorder(new TreeCodec.Reader(in, TreeCodec.AVL_TREE));
+        return tree;
+    }
+
+    // Link the nodes of the pre-order in 'in' into a tree. Each open node on
+    // the stack keeps the exclusive bounds of its subtree and how far it
+    // got: 0 = may take a left child, 1 = may take a right child, 2 = done.
+    // A node is finished (height, size, hash, balance check) once both its
+    // subtrees are, so every node is visited a constant # of times.
+    private Node buildPreorder(TreeCodec.Reader in) throws IOException {
+        int remaining = in.count();
+        if (remaining == 0)
+            return null;
+
+        Node[] nodes  = new Node[MAX_PATH];
+        long[] lows   = new long[MAX_PATH];
+        long[] highs  = new long[MAX_PATH];
+        int[]  stages = new int[MAX_PATH];
+
+        Node root = newNode(in.nextInt());
+        remaining--;                         // values not linked yet, 'next' included
+        int top = 0;
+        nodes[0] = root;
+        lows[0]  = (long) Integer.MIN_VALUE - 1;
+        highs[0] = FULL_RANGE_END;
+        stages[0] = 0;
+
+        boolean pending = remaining > 0;     // 'next' holds a value not yet linked
+        int next = pending ? in.nextInt() : 0;
+
+        while (top >= 0) {
+            Node node = nodes[top];
+            int stage = stages[top]++;
+
+            if (stage == 2) {
+                updateNode(node);
+                if (Math.abs(getBalanceFactor(node)) > 1)
+                    throw new IOException("corrupt tree file: node " + node.value + " is out of balance");
+                top--;
+                continue;
+            }
+
+            long lo = stage == 0 ? lows[top] : node.value;
+            long hi = stage == 0 ? node.value : highs[top];
+            if (!pending || (next <= lo) || (next >= hi))
+                continue;
+
+            if (top + 1 == MAX_PATH)
+                throw new IOException("corrupt tree file: deeper than any AVL tree");
+
+            Node child = newNode(next);
+            if (stage == 0)
+                node.leftChild = child;
+            else
+                node.rightChild = child;
+
+            top++;
+            nodes[top] = child;
+            lows[top]  = lo;
+            highs[top] = hi;
+            stages[top] = 0;
+
+            pending = remaining-- > 1;
+            if (pending)
+                next = in.nextInt();
+        }
+
+        if (pending)
+            throw new IOException("corrupt tree file: values are not the pre-order of a search tree");
+        return root;
+    }
+    public int size()                 { return getSize(rootNode); }
+
+    private int getHeight(Node node)  { return node == null ? -1 : node.height; }
+    private int getSize(Node node)    { return node == null ? 0 : node.size; }
+    private long getHash(Node node)   { return node == null ? 0 : node.hash; }
+    private int getMaxHeight(int leftNodeHeight, int rightNodeHeight) {
+        return leftNodeHeight > rightNodeHeight ? leftNodeHeight : rightNodeHeight;
+    }
+
+
+    /**
+     *  Method: checkInvariants
+     *
+     *  Verifies the whole tree in a single O(n) pre-order pass and returns a
+     *  description of the first node that breaks an invariant, or null if
+     *  there is none. Each node is checked against:
+     *    - the open interval its ancestors allow (BST order). The bounds are
+     *      passed down from parent to child, so no subtree is re-scanned for
+     *      its minimum or maximum;
+     *    - its cached height, size and hash, recomputed from its children's
+     *      cached fields. Every node is checked, so each cached field is
+     *      verified exactly once;
+     *    - its balance factor.
+     *
+     *  It does not recurse and does not assume the depth is bounded by
+     *  MAX_PATH, since it is meant for trees that may be corrupt. A cycle in
+     *  the links is reported as a violation rather than followed forever. It
+     *  only reads the tree, so it is safe to run alongside other readers.
+     *
+     *  @return null if the tree is a valid AVL tree, otherwise a message
+     *          naming the first violating node (in pre-order)
+     */
+
+    public String checkInvariants() {
+        if (rootNode == null)
+            return null;
+
+        // Pending nodes with the exclusive bounds their value must fall within
+        Node[] nodes = new Node[MAX_PATH];
+        long[] lows  = new long[MAX_PATH];
+        long[] highs = new long[MAX_PATH];
+        int top = 0;
+        nodes[0] = rootNode;
+        lows[0]  = (long) Integer.MIN_VALUE - 1;
+        highs[0] = FULL_RANGE_END;
+
+        while (top >= 0) {
+            Node node = nodes[top];
+            long lo = lows[top], hi = highs[top];
+            top--;
+
+            String violation = checkNode(node, lo, hi);
+            if (violation != null)
+                return violation;
+
+            if (top + 2 >= nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+                lows  = Arrays.copyOf(lows,  2 * lows.length);
+                highs = Arrays.copyOf(highs, 2 * highs.length);
+            }
+            if (node.rightChild != null) {
+                top++;
+                nodes[top] = node.rightChild;
+                lows[top]  = node.value;
+                highs[top] = hi;
+            }
+            if (node.leftChild != null) {
+                top++;
+                nodes[top] = node.leftChild;
+                lows[top]  = lo;
+                highs[top] = node.value;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     *  Method: checkInvariantsSampled
+     *
+     *  Cheap probabilistic version of checkInvariants() for use on live
+     *  trees: follows 'paths' random root-to-leaf paths and applies the same
+     *  checks to every node on them, in O(paths * log n). At each step the
+     *  path goes left or right in proportion to the subtree sizes, so every
+     *  node is equally likely to be reached. A corrupt node is only found if
+     *  a path crosses it, but any inconsistency it causes in its ancestors'
+     *  cached sizes, hashes or heights is found on every path.
+     *
+     *  @param  paths - # of root-to-leaf paths to check
+     *
+     *  @return null if no violation was found, otherwise a message naming
+     *          the first violating node met
+     */
+
+    public String checkInvariantsSampled(int paths) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+
+        for (int p = 0; (p < paths) && (rootNode != null); p++) {
+            Node node = rootNode;
+            long lo = (long) Integer.MIN_VALUE - 1, hi = FULL_RANGE_END;
+
+            while (node != null) {
+                String violation = checkNode(node, lo, hi);
+                if (violation != null)
+                    return violation;
+
+                // Stop here with probability 1 / size, otherwise descend
+                // into a child in proportion to its size. The size is only
+                // known to match the children's, which may themselves be off.
+                int pick = rnd.nextInt(Math.max(node.size, 1));
+                int leftSize = getSize(node.leftChild);
+                if (pick == leftSize) {
+                    node = null;
+                } else if (pick < leftSize) {
+                    hi = node.value;
+                    node = node.leftChild;
+                } else {
+                    lo = node.value;
+                    node = node.rightChild;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Check one node against the open interval (lo, hi) and against its
+    // children's cached fields; returns a description of the first problem
+    private String checkNode(Node node, long lo, long hi) {
+        if ((node.value <= lo) || (node.value >= hi))
+            return "node " + node.value + ": out of order, must lie strictly between "
+                   + describeBound(lo) + " and " + describeBound(hi);
+
+        int height = getMaxHeight(getHeight(node.leftChild), getHeight(node.rightChild)) + 1;
+        if (node.height != height)
+            return "node " + node.value + ": height is " + node.height + ", expected " + height;
+
+        int size = getSize(node.leftChild) + getSize(node.rightChild) + 1;
+        if (node.size != size)
+            return "node " + node.value + ": size is " + node.size + ", expected " + size;
+
+        if (node.hash != getHash(node.leftChild) + getHash(node.rightChild) + Node.hashOf(node.value))
+            return "node " + node.value + ": subtree hash does not match its values";
+
+        int balance = getHeight(node.leftChild) - getHeight(node.rightChild);
+        if (Math.abs(balance) > 1)
+            return "node " + node.value + ": balance factor is " + balance;
+
+        return null;
+    }
+
+    private static String describeBound(long bound) {
+        return (bound < Integer.MIN_VALUE) || (bound > Integer.MAX_VALUE) ? "unbounded" : Long.toString(bound);
+    }
+
+    /**
+     *  Method: contains
+     *
+     *  Returns true if 'value' is in the tree. Walks a single root-to-leaf
+     *  path without allocating.
+     *
+     *  @param  value - value to search for
+     *
+     *  @return true if the value is present
+     */
+
+    public boolean contains(int value) { return findNode(value) != null; }
+
+    // Returns the node holding 'value', or null
+    Node findNode(int value) {
+        Node node = rootNode;
+        while (node != null) {
+            if (value == node.value)
+                return node;
+            node = value < node.value ? node.leftChild : node.rightChild;
+        }
+        return null;
+    }
+
+
+    /**
+     *  Method: floor
+     *
+     *  Returns the greatest value in the tree that is less than or equal to
+     *  'value'. Walks down from the root remembering the last node passed on
+     *  the way to a right child, which is the best candidate seen so far.
+     *
+     *  @param  value - value to search for
+     *
+     *  @return the greatest value <= 'value', or empty if there is none
+     */
+
+    public OptionalInt floor(int value) {
+        Node node = rootNode, best = null;
+
+        while (node != null) {
+            if (value == node.value)
+                return OptionalInt.of(value);
+            if (value > node.value) {
+                best = node;
+                node = node.rightChild;
+            } else {
+                node = node.leftChild;
+            }
+        }
+        return best == null ? OptionalInt.empty() : OptionalInt.of(best.value);
+    }
+
+    // Mirror image of floor(): least value >= 'value'
+    public OptionalInt ceiling(int value) {
+        Node node = rootNode, best = null;
+
+        while (node != null) {
+            if (value == node.value)
+                return OptionalInt.of(value);
+            if (value < node.value) {
+                best = node;
+                node = node.leftChild;
+            } else {
+                node = node.rightChild;
+            }
+        }
+        return best == null ? OptionalInt.empty() : OptionalInt.of(best.value);
+    }
+
+    // Greatest value strictly less than 'value'
+    public OptionalInt lower(int value) {
+        return value == Integer.MIN_VALUE ? OptionalInt.empty() : floor(value - 1);
+    }
+
+    // Least value strictly greater than 'value'
+    public OptionalInt higher(int value) {
+        return value == Integer.MAX_VALUE ? OptionalInt.empty() : ceiling(value + 1);
+    }
+
+
+    /**
+     *  Method: rank
+     *
+     *  Returns the number of values in the tree that are strictly smaller than
+     *  'value'. The value itself does not need to be present. Walks a single
+     *  root-to-leaf path, adding the size of every left subtree skipped.
+     *
+     *  @param  value - value to rank
+     *
+     *  @return # of values in the tree less than 'value'
+     */
+
+    public int rank(int value) {
+        int rank = 0;
+        Node node = rootNode;
+
+        while (node != null) {
+            if (value <= node.value) {
+                node = node.leftChild;
+            } else {
+                rank += getSize(node.leftChild) + 1;
+                node = node.rightChild;
+            }
+        }
+        return rank;
+    }
+
+
+    /**
+     *  Method: select
+     *
+     *  Returns the k-th smallest value in the tree, counting from 0, so that
+     *  select(rank(v)) == v for every value v in the tree.
+     *
+     *  @param  k - 0-based position in sorted order
+     *
+     *  @return the value at position 'k'
+     *
+     *  @throws IndexOutOfBoundsException if k is not in [0, size())
+     */
+
+    public int select(int k) {
+        if (k < 0 || k >= getSize(rootNode))
+            throw new IndexOutOfBoundsException("k: " + k + ", size: " + getSize(rootNode));
+
+        Node node = rootNode;
+        while (true) {
+            int leftSize = getSize(node.leftChild);
+
+            if (k < leftSize) {
+                node = node.leftChild;
+            } else if (k > leftSize) {
+                k -= leftSize + 1;
+                node = node.rightChild;
+            } else {
+                return node.value;
+            }
+        }
+    }
+
+
+    /**
+     *  Method: countInRange
+     *
+     *  Returns the number of values v in the tree with lo <= v <= hi, computed
+     *  as the difference of two rank queries. An empty range (lo > hi)
+     *  returns 0.
+     *
+     *  @param  lo - lower bound, inclusive
+     *  @param  hi - upper bound, inclusive
+     *
+     *  @return # of values in [lo, hi]
+     */
+
+    public int countInRange(int lo, int hi) {
+        if (lo > hi)
+            return 0;
+
+        int upTo = (hi == Integer.MAX_VALUE) ? getSize(rootNode) : rank(hi + 1);
+        return upTo - rank(lo);
+    }
+
+
+    /**
+     *  Method: hashInRange
+     *
+     *  Returns the sum of Node.hashOf(v) over the values v in the tree with
+     *  lo <= v <= hi, i.e. what contentHash() would return for a tree holding
+     *  only those values. Computed like countInRange(), from two O(log n)
+     *  prefix sums.
+     *
+     *  @param  lo - lower bound, inclusive
+     *  @param  hi - upper bound, inclusive
+     *
+     *  @return hash of the values in [lo, hi]
+     */
+
+    public long hashInRange(int lo, int hi) {
+        if (lo > hi)
+            return 0;
+
+        long upTo = (hi == Integer.MAX_VALUE) ? getHash(rootNode) : hashBelow(hi + 1);
+        return upTo - hashBelow(lo);
+    }
+
+    // Sum of the hashes of the values strictly smaller than 'value'; the
+    // counterpart of rank()
+    private long hashBelow(int value) {
+        long hash = 0;
+        Node node = rootNode;
+
+        while (node != null) {
+            if (value <= node.value) {
+                node = node.leftChild;
+            } else {
+                hash += getHash(node.leftChild) + Node.hashOf(node.value);
+                node = node.rightChild;
+            }
+        }
+        return hash;
+    }
+
+
+    /**
+     *  Method: buildBalanced
+     *
+     *  Builds a height-balanced tree from sorted[lo..hi] by making the middle
+     *  element the root and building both halves the same way. Sibling
+     *  subtrees differ in size by at most one, so the result satisfies the
+     *  AVL property with no rotations, and every node is visited once.
+     *
+     *  @param  sorted - strictly ascending values
+     *  @param  lo     - first index of the range, inclusive
+     *  @param  hi     - last index of the range, inclusive
+     *
+     *  @return root of the new [sub]tree, or null if the range is empty
+     */
+
+    private Node buildBalanced(int[] sorted, int lo, int hi) {
+        if (lo > hi)
+            return null;
+
+        int mid = (lo + hi) >>> 1;
+        Node node = newNode(sorted[mid]);
+        node.leftChild  = buildBalanced(sorted, lo, mid - 1);
+        node.rightChild = buildBalanced(sorted, mid + 1, hi);
+        updateNode(node);
+
+        return node;
+    }
+
+    // Returns 'values' itself if it is strictly ascending, otherwise a sorted
+    // copy without duplicates
+    private static int[] sortedDistinct(int[] values) {
+        if (isStrictlyAscending(values))
+            return values;
+
+        values = values.clone();
+        Arrays.sort(values);
+        return Arrays.copyOf(values, removeDuplicates(values));
+    }
+
+
+    /**
+     *  Method: relinkBalanced
+     *
+     *  Builds a height-balanced tree out of the next 'count' nodes returned
+     *  by 'survivors', in order. Like buildBalanced(), the left half is built
+     *  first, then the middle node, then the right half, so each node is
+     *  taken from the cursor exactly when its position in the new tree is
+     *  known. A node's old links are no longer needed by the cursor once it
+     *  has been returned, so they can be overwritten in place.
+     *
+     *  @param  survivors - in-order cursor over the nodes to keep
+     *  @param  count     - # of nodes to take from the cursor
+     *
+     *  @return root of the new [sub]tree, or null if count is 0
+     */
+
+    private Node relinkBalanced(Survivors survivors, int count) {
+        if (count == 0)
+            return null;
+
+        int leftCount = (count - 1) >>> 1;
+        Node left = relinkBalanced(survivors, leftCount);
+        Node node = survivors.next();
+        node.leftChild  = left;
+        node.rightChild = relinkBalanced(survivors, count - 1 - leftCount);
+        updateNode(node);
+
+        return node;
+    }
 
-    public LUC_AVLTree()              { rootNode = null; }       // Constructor
-    public void removeAll()           { rootNode = null; }       // Make tree empty
-    public boolean checkEmpty()       { if (rootNode == null) return true; else return false; }
-    public void insert(int value)     { rootNode = insertElement(value, rootNode); }
-    public void delete(int value)     { rootNode = deleteElement(value, rootNode); }
-    public String preorderTraversal() { return preorderTraversal(rootNode); }
+    private static boolean isStrictlyAscending(int[] values) {
+        for (int i = 1; i < values.length; i++)
+            if (values[i - 1] >= values[i])
+                return false;
+        return true;
+    }
 
-    private boolean isTreeBalanced()   { return isTreeBalanced(rootNode); }
-    private boolean isBST()            { return isBST(rootNode); }
-    private int getHeight(Node node)  { return node == null ? -1 : node.height; }
-    private int getMaxHeight(int leftNodeHeight, int rightNodeHeight) {
-        return leftNodeHeight > rightNodeHeight ? leftNodeHeight : rightNodeHeight;
+    // Compact a sorted array in place, returning the # of distinct values
+    private static int removeDuplicates(int[] sorted) {
+        if (sorted.length == 0)
+            return 0;
+
+        int count = 1;
+        for (int i = 1; i < sorted.length; i++)
+            if (sorted[i] != sorted[count - 1])
+                sorted[count++] = sorted[i];
+        return count;
     }
 
-    private boolean isTreeBalanced(Node node) {
+
+    /**
+     *  Method: union
+     *
+     *  Returns the root of a tree holding the values of 'node' plus
+     *  sorted[lo..hi]. The middle value of the batch splits the tree in two,
+     *  each half of the batch is merged into the matching half of the tree,
+     *  and the results are joined back around the middle value. A part of the
+     *  batch that reaches an empty subtree is built directly with
+     *  buildBalanced(), and a subtree no batch value falls into is returned
+     *  untouched, which is where the O(m log(n/m + 1)) bound comes from.
+     *
+     *  @param  node   - root of the [sub]tree; re-linked, not copied
+     *  @param  sorted - strictly ascending values to add
+     *  @param  lo     - first index of the range, inclusive
+     *  @param  hi     - last index of the range, inclusive
+     *  @param  split  - scratch holder passed down to split()
+     *
+     *  @return root of the merged [sub]tree
+     */
+
+    private Node union(Node node, int[] sorted, int lo, int hi, Split split) {
+        if (lo > hi)
+            return node;
         if (node == null)
-            return true;
+            return buildBalanced(sorted, lo, hi);
 
-        int leftSubTree  = getHeight(node.leftChild)  + 1;
-        int rightSubTree = getHeight(node.rightChild) + 1;
+        int mid = (lo + hi) >>> 1;
+        split(node, sorted[mid], split);
+        Node left = split.left, right = split.right;
+        Node pivot = split.middle != null ? split.middle : newNode(sorted[mid]);
 
-        // Calculate the bf
-        if (Math.abs(leftSubTree - rightSubTree) > 1)
-            return false;
+        left  = union(left, sorted, lo, mid - 1, split);
+        right = union(right, sorted, mid + 1, hi, split);
+        return join(left, pivot, right);
+    }
+
+
+    /**
+     *  Method: difference
+     *
+     *  Returns the root of a tree holding the values of 'node' minus
+     *  sorted[lo..hi]. Works like union(), except that the two halves are
+     *  joined without the middle value (see join2()).
+     *
+     *  @param  node   - root of the [sub]tree; re-linked, not copied
+     *  @param  sorted - strictly ascending values to remove
+     *  @param  lo     - first index of the range, inclusive
+     *  @param  hi     - last index of the range, inclusive
+     *  @param  split  - scratch holder passed down to split()
+     *
+     *  @return root of the remaining [sub]tree
+     */
+
+    private Node difference(Node node, int[] sorted, int lo, int hi, Split split) {
+        if ((lo > hi) || (node == null))
+            return node;
 
-        return isTreeBalanced(node.leftChild) && isTreeBalanced(node.rightChild);
+        int mid = (lo + hi) >>> 1;
+        split(node, sorted[mid], split);
+        Node left = split.left, right = split.right;
+
+        left  = difference(left, sorted, lo, mid - 1, split);
+        right = difference(right, sorted, mid + 1, hi, split);
+        return join2(left, right);
     }
 
-    private boolean isBST( Node node) {
-        if (node == null)
-            return true;
 
-        if ( (node.leftChild != null) && (maxValue(node.leftChild) > node.value) )
-            return false;
+    /**
+     *  Method: split
+     *
+     *  Splits the [sub]tree rooted at 'node' around 'key': split.left gets
+     *  the values smaller than 'key', split.right the larger ones, and
+     *  split.middle the node holding 'key' (detached), or null. The pieces
+     *  are re-joined on the way back up the search path, so the whole split
+     *  takes O(log n).
+     *
+     *  @param  node  - root of the [sub]tree to split; its nodes are re-used
+     *  @param  key   - value to split around
+     *  @param  split - receives the three results
+     */
 
-        if ( (node.rightChild != null) && (minValue(node.rightChild) < node.value) )
-            return false;
+    private void split(Node node, int key, Split split) {
+        if (node == null) {
+            split.left = split.middle = split.right = null;
+            return;
+        }
 
-        if ( ( ! isBST(node.leftChild) ) || ( ! isBST(node.rightChild) ) )
-            return false;
+        Node left = node.leftChild, right = node.rightChild;
+        if (key < node.value) {
+            split(left, key, split);
+            split.right = join(split.right, node, right);
+        } else if (key > node.value) {
+            split(right, key, split);
+            split.left = join(left, node, split.left);
+        } else {
+            split.left   = left;
+            split.middle = node;
+            split.right  = right;
+            node.leftChild = node.rightChild = null;
+            updateNode(node);
+        }
+    }
 
-        return true;
+
+    /**
+     *  Method: join
+     *
+     *  Returns the root of a tree holding the values of 'left', then 'pivot',
+     *  then the values of 'right', where every value in 'left' is smaller
+     *  than pivot.value and every value in 'right' larger. The shorter tree
+     *  is hung, under 'pivot', off the spine of the taller one at the first
+     *  node whose height is within one of it, and the spine is rebalanced on
+     *  the way back up. Runs in O(|height(left) - height(right)| + 1).
+     *
+     *  @param  left  - smaller values, may be null
+     *  @param  pivot - node to put between them; its children are replaced
+     *  @param  right - larger values, may be null
+     *
+     *  @return root of the joined [sub]tree
+     */
+
+    private Node join(Node left, Node pivot, Node right) {
+        int leftHeight = getHeight(left), rightHeight = getHeight(right);
+
+        if (leftHeight > rightHeight + 1) {
+            left.rightChild = join(left.rightChild, pivot, right);
+            updateNode(left);
+            return rebalance(left);
+        }
+        if (rightHeight > leftHeight + 1) {
+            right.leftChild = join(left, pivot, right.leftChild);
+            updateNode(right);
+            return rebalance(right);
+        }
+
+        pivot.leftChild  = left;
+        pivot.rightChild = right;
+        updateNode(pivot);
+        return pivot;
     }
 
-    private int maxValue(Node node) {
-        if (node == null)
-            return  Integer.MIN_VALUE;
+    // Join two trees with no value in between: the smallest node of 'right'
+    // is taken out and used as the pivot.
+    private Node join2(Node left, Node right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
 
-        int value    = node.value;
-        int leftMax  = maxValue(node.leftChild);
-        int rightMax = maxValue(node.rightChild);
+        Node pivot = minValueNode(right);
+        return join(left, pivot, removeMin(right));
+    }
+
+    // Unlink the smallest node of the [sub]tree, rebalancing on the way up
+    private Node removeMin(Node node) {
+        if (node.leftChild == null)
+            return node.rightChild;
 
-        return Math.max(value, Math.max(leftMax, rightMax));
+        node.leftChild = removeMin(node.leftChild);
+        updateNode(node);
+        return rebalance(node);
     }
 
-    private int minValue(Node node) {
-        if (node == null)
-            return Integer.MAX_VALUE;
 
-        int value    = node.value;
-        int leftMin  = minValue(node.leftChild);
-        int rightMin = minValue(node.rightChild);
+    /**
+     *  Method: setOperation
+     *
+     *  Sequential core of the static set operations. The root of 'b' splits
+     *  'a' into the values below and above it; the operation is applied to
+     *  each half of 'a' with the matching subtree of 'b', and the two results
+     *  are joined back with b's root, a's matching node, or nothing,
+     *  depending on the operation (see combine()).
+     *
+     *  @param  operation - UNION, INTERSECTION, DIFFERENCE or SYMMETRIC_DIFFERENCE
+     *  @param  a         - left operand; its nodes are re-linked
+     *  @param  b         - right operand; its nodes are re-linked
+     *  @param  split     - scratch holder passed down to split()
+     *
+     *  @return root of the resulting [sub]tree
+     */
+
+    private Node setOperation(int operation, Node a, Node b, Split split) {
+        if ((a == null) || (b == null))
+            return setOperationBase(operation, a, b);
+
+        Node bLeft = b.leftChild, bRight = b.rightChild;
+        split(a, b.value, split);
+        Node aLeft = split.left, aMatch = split.middle, aRight = split.right;
 
-        return Math.max(value, Math.max(leftMin, rightMin));
+        Node left  = setOperation(operation, aLeft, bLeft, split);
+        Node right = setOperation(operation, aRight, bRight, split);
+        return combine(operation, left, b, aMatch, right);
     }
 
-    private String preorderTraversal(Node node) {
-        if (node == null)
-            return "";
+    // Result of a set operation when one of the operands is empty
+    private static Node setOperationBase(int operation, Node a, Node b) {
+        switch (operation) {
+            case UNION:
+            case SYMMETRIC_DIFFERENCE:  return a == null ? b : a;
+            case DIFFERENCE:            return a;
+            default:                    return null;
+        }
+    }
 
-        return node.value + " " + preorderTraversal(node.leftChild)
-                + preorderTraversal(node.rightChild);
+    // Join the results for the values below and above b's root. 'aMatch' is
+    // the node of 'a' holding the same value as 'b', or null.
+    private Node combine(int operation, Node left, Node b, Node aMatch, Node right) {
+        switch (operation) {
+            case UNION:
+                return join(left, b, right);
+            case INTERSECTION:
+                return aMatch != null ? join(left, aMatch, right) : join2(left, right);
+            case DIFFERENCE:
+                return join2(left, right);
+            default:
+                return aMatch != null ? join2(left, right) : join(left, b, right);
+        }
     }
 
     private Node insertElement(int value, Node node) {
         if (node == null) {
-            node = new Node(value);
+            node = newNode(value);
             return node;
         }
+        if (AVLTreeMetrics.ENABLED) pathLength++;
 
         if (value < node.value) {
             node.leftChild = insertElement(value, node.leftChild);
@@ -170,7 +1305,7 @@ class LUC_AVLTree {
             }
         }
 
-        node.height = (getMaxHeight( getHeight(node.leftChild), getHeight(node.rightChild))) + 1;
+        updateNode(node);
 
         return node;
     }
@@ -179,6 +1314,7 @@ class LUC_AVLTree {
         if (node == null) {
             return node;
         }
+        if (AVLTreeMetrics.ENABLED) pathLength++;
         if (value < node.value) {
             node.leftChild = deleteElement(value, node.leftChild);
         } else if (value > node.value) {
@@ -194,7 +1330,7 @@ class LUC_AVLTree {
                 }
             } else {
                 Node temp = minValueNode(node.rightChild);
-                node.value = temp.value;
+                moveValue(temp, node);
                 node.rightChild = deleteElement(temp.value, node.rightChild);
             }
         }
@@ -203,7 +1339,7 @@ class LUC_AVLTree {
             return node;
         }
 
-        node.height = getMaxHeight(getHeight(node.leftChild), getHeight(node.rightChild)) + 1;
+        updateNode(node);
 
         int balance = getBalanceFactor(node);
 
@@ -212,8 +1348,7 @@ class LUC_AVLTree {
         }
 
         if (balance > 1 && getBalanceFactor(node.leftChild) < 0) {
-            node.leftChild = RRRotation(node.leftChild);
-            return LLRotation(node);
+            return LRRotation(node);
         }
 
         if (balance < -1 && getBalanceFactor(node.rightChild) <= 0) {
@@ -221,13 +1356,185 @@ class LUC_AVLTree {
         }
 
         if (balance < -1 && getBalanceFactor(node.rightChild) > 0) {
-            node.rightChild = LLRotation(node.rightChild);
-            return RRRotation(node);
+            return RLRotation(node);
+        }
+
+        return node;
+    }
+
+
+    /**
+     *  Method: insertIterative
+     *
+     *  Non-recursive counterpart of insertElement(). The descent records every
+     *  ancestor of the new leaf in 'pathStack'. Retracing then walks the stack
+     *  bottom-up, re-computing each ancestor and rotating where needed, and
+     *  stops as soon as a subtree's height is the same as before the insert
+     *  (after a rotation this is always the case). The remaining ancestors
+     *  only need their size and hash adjusted for the new value.
+     *
+     *  @param  value - value to insert; duplicates are ignored
+     */
+
+    private void insertIterative(int value) {
+        Node[] path = pathStack;
+        Node node = rootNode;
+        int depth = 0;
+
+        while (node != null) {
+            if (value == node.value) {
+                if (AVLTreeMetrics.ENABLED) pathLength = depth + 1;
+                return;
+            }
+            path[depth++] = node;
+            node = value < node.value ? node.leftChild : node.rightChild;
+        }
+
+        if (AVLTreeMetrics.ENABLED) pathLength = depth;
+        node = newNode(value);
+        if (depth == 0) {
+            rootNode = node;
+            return;
+        }
+
+        Node parent = path[depth - 1];
+        if (value < parent.value)
+            parent.leftChild = node;
+        else
+            parent.rightChild = node;
+
+        long hash = Node.hashOf(value);
+        int level = retrace(depth - 1);
+        while (level >= 0) {
+            path[level].size++;
+            path[level--].hash += hash;
+        }
+    }
+
+
+    /**
+     *  Method: deleteIterative
+     *
+     *  Non-recursive counterpart of deleteElement(). As in the recursive
+     *  version, a node with two children takes the value of its in-order
+     *  successor, and the successor node is unlinked instead. Retracing
+     *  stops once a subtree's height is unchanged after any rotation; the
+     *  remaining ancestors only need their size and hash adjusted for the
+     *  removed value (the successor's value only moved within them).
+     *
+     *  @param  value - value to delete; absent values are ignored
+     */
+
+    private void deleteIterative(int value) {
+        Node[] path = pathStack;
+        Node node = rootNode;
+        int depth = 0;
+
+        while (node != null && node.value != value) {
+            path[depth++] = node;
+            node = value < node.value ? node.leftChild : node.rightChild;
+        }
+
+        if (AVLTreeMetrics.ENABLED) pathLength = depth;
+        if (node == null)
+            return;
+
+        // Ancestors above 'target' lose 'value'; those between it and the
+        // successor lose the successor's value, which moves up into 'target'
+        int targetLevel = depth;
+        long successorHash = 0;
+
+        if ((node.leftChild != null) && (node.rightChild != null)) {
+            Node target = node;
+            path[depth++] = node;
+            node = node.rightChild;
+            while (node.leftChild != null) {
+                path[depth++] = node;
+                node = node.leftChild;
+            }
+            successorHash = Node.hashOf(node.value);
+            moveValue(node, target);
+        }
+        if (AVLTreeMetrics.ENABLED) pathLength = depth + 1;
+
+        Node child = node.leftChild == null ? node.rightChild : node.leftChild;
+        replaceChild(depth, node, child);
+
+        long hash = Node.hashOf(value);
+        int level = retrace(depth - 1);
+        while (level >= 0) {
+            path[level].size--;
+            path[level].hash -= level > targetLevel ? successorHash : hash;
+            level--;
+        }
+    }
+
+
+    /**
+     *  Method: retrace
+     *
+     *  Re-computes the nodes on 'pathStack' from index 'level' up towards the
+     *  root, rebalancing each one, and stops at the first subtree whose height
+     *  did not change. Sizes and hashes above that point are left to the
+     *  caller.
+     *
+     *  @param  level - index in 'pathStack' of the lowest ancestor to fix
+     *
+     *  @return index of the highest ancestor still to be visited, or -1
+     */
+
+    private int retrace(int level) {
+        while (level >= 0) {
+            Node node = pathStack[level];
+            int oldHeight = node.height;
+
+            updateNode(node);
+            Node top = rebalance(node);
+            if (top != node)
+                replaceChild(level, node, top);
+
+            level--;
+            if (top.height == oldHeight)
+                break;
         }
+        return level;
+    }
+
+    // Rotate 'node' back into balance, choosing the rotation the same way
+    // deleteElement() does; returns the new top of the [sub]tree.
+    private Node rebalance(Node node) {
+        int balance = getBalanceFactor(node);
+
+        if (balance > 1)
+            return getBalanceFactor(node.leftChild) >= 0 ? LLRotation(node) : LRRotation(node);
+        if (balance < -1)
+            return getBalanceFactor(node.rightChild) <= 0 ? RRRotation(node) : RLRotation(node);
 
         return node;
     }
 
+    // Replace 'oldChild', found at index 'level' of the path stack, with
+    // 'newChild' in its parent (pathStack[level - 1]) or at the root.
+    private void replaceChild(int level, Node oldChild, Node newChild) {
+        if (level == 0) {
+            rootNode = newChild;
+            return;
+        }
+
+        Node parent = pathStack[level - 1];
+        if (parent.leftChild == oldChild)
+            parent.leftChild = newChild;
+        else
+            parent.rightChild = newChild;
+    }
+
+    // Hooks for subclasses that attach data to the nodes (see
+    // IntObjectSortedMap): every node the tree adds is created by newNode(),
+    // and deleting a node with two children moves its successor's contents
+    // into it with moveValue().
+    Node newNode(int value)             { return new Node(value); }
+    void moveValue(Node from, Node to)  { to.value = from.value; }
+
     private int getBalanceFactor(Node node) {
         if (node == null) return 0;
 
@@ -237,6 +1544,14 @@ class LUC_AVLTree {
         return leftSubTreeHeight - rightSubTreeHeight;
     }
 
+    // Re-calculate the cached height, size and hash of 'node' from its children
+    private void updateNode(Node node) {
+        if (AVLTreeMetrics.ENABLED) AVLTreeMetrics.NODE_UPDATES.increment();
+        node.height = getMaxHeight(getHeight(node.leftChild), getHeight(node.rightChild)) + 1;
+        node.size   = getSize(node.leftChild) + getSize(node.rightChild) + 1;
+        node.hash   = getHash(node.leftChild) + getHash(node.rightChild) + Node.hashOf(node.value);
+    }
+
     private Node minValueNode(Node node) {
         Node current = node;
         while (current.leftChild != null)
@@ -245,13 +1560,14 @@ class LUC_AVLTree {
     }
 
     private Node LLRotation( Node x) {
+        if (AVLTreeMetrics.ENABLED) AVLTreeMetrics.LL_ROTATIONS.increment();
         Node y = x.leftChild;
         x.leftChild = y.rightChild;
         y.rightChild = x;
 
-        // Re-calculate the node heights
-        x.height = getMaxHeight( getHeight(x.leftChild), getHeight(x.rightChild)) + 1;
-        y.height = getMaxHeight( getHeight(y.leftChild), getHeight(y.rightChild)) + 1;
+        // Re-calculate the node heights and sizes
+        updateNode(x);
+        updateNode(y);
 
         return y;
     }
@@ -265,8 +1581,8 @@ class LUC_AVLTree {
      *  rotation, node X's left Right grand-child, Z, becomes the new top of the
      *  [sub]tree. And, Z's left sub-child, zl, becomes the right sub-child of
      *  Y, and right sub-child, zr, becomes the left sub-child of X. Node Z is
-     *  returned as the new top to the [sub]tree. The height values of nodes X, Y,
-     *  and Z are adjusted, each changes in this rotation.
+     *  returned as the new top to the [sub]tree. The height and size values of
+     *  nodes X, Y, and Z are adjusted, each changes in this rotation.
      *
      *          X
      *        /   \
@@ -282,6 +1598,7 @@ class LUC_AVLTree {
      */
 
     private Node LRRotation( Node x) {
+        if (AVLTreeMetrics.ENABLED) AVLTreeMetrics.LR_ROTATIONS.increment();
         Node y = x.leftChild;
         Node z = x.leftChild.rightChild;
         y.rightChild = z.leftChild;
@@ -289,10 +1606,10 @@ class LUC_AVLTree {
         z.leftChild  = y;
         z.rightChild = x;
 
-        // Re-calculate the node heights
-        x.height = getMaxHeight(getHeight(x.leftChild), getHeight(x.rightChild)) + 1;
-        y.height = getMaxHeight(getHeight(y.leftChild), getHeight(y.rightChild)) + 1;
-        z.height = getMaxHeight(getHeight(z.leftChild), getHeight(z.rightChild)) + 1;
+        // Re-calculate the node heights and sizes
+        updateNode(x);
+        updateNode(y);
+        updateNode(z);
 
         return z;
     }
@@ -306,7 +1623,8 @@ class LUC_AVLTree {
      *  rotation, its right sub-child, Y, becomes the new top of this
      *  [sub]tree. And, node Y's left sub-child, yl, becomes the right sub-child
      *  of X. Node Y is returned as the new top to the [sub]tree. The height
-     *  values of nodes X and Y are re-adjusted. Z's height does not change.
+     *  and size values of nodes X and Y are re-adjusted. Z's height and size
+     *  do not change.
      *
      *               X
      *             /   \
@@ -322,13 +1640,14 @@ class LUC_AVLTree {
      */
 
     private Node RRRotation( Node x) {
+        if (AVLTreeMetrics.ENABLED) AVLTreeMetrics.RR_ROTATIONS.increment();
         Node y = x.rightChild;
         x.rightChild = y.leftChild;
         y.leftChild = x;
 
-        // Re-calculate the node heights
-        x.height = getMaxHeight( getHeight(x.leftChild), getHeight(x.rightChild)) + 1;
-        y.height = getMaxHeight( getHeight(y.leftChild), getHeight(y.rightChild)) + 1;
+        // Re-calculate the node heights and sizes
+        updateNode(x);
+        updateNode(y);
         return y;
     }
 
@@ -341,8 +1660,8 @@ class LUC_AVLTree {
      *  grandchild, Z, becomes the new top of the [sub]tree. And, Z's left
      *  subchild, zl, becomes the right subchild of X, and right subchild, zr,
      *  becomes the left subchild of Y. Node Z is returned as the new top to the
-     *  [sub]tree. The height values of nodes X, Y, and Z are adjusted, each
-     *  changes in this rotation.
+     *  [sub]tree. The height and size values of nodes X, Y, and Z are adjusted,
+     *  each changes in this rotation.
      *
      *          X
      *        /   \
@@ -358,6 +1677,7 @@ class LUC_AVLTree {
      */
 
     private Node RLRotation( Node x) {
+        if (AVLTreeMetrics.ENABLED) AVLTreeMetrics.RL_ROTATIONS.increment();
         Node y = x.rightChild;
         Node z = x.rightChild.leftChild;
         y.leftChild  = z.rightChild;
@@ -365,10 +1685,333 @@ class LUC_AVLTree {
         z.rightChild = y;
         z.leftChild  = x;
 
-        // Re-calculate the node heights
-        x.height = getMaxHeight( getHeight(x.leftChild), getHeight(x.rightChild)) + 1;
-        y.height = getMaxHeight( getHeight(y.leftChild), getHeight(y.rightChild)) + 1;
-        z.height = getMaxHeight( getHeight(z.leftChild), getHeight(z.rightChild)) + 1;
+        // Re-calculate the node heights and sizes
+        updateNode(x);
+        updateNode(y);
+        updateNode(z);
         return z;
     }
-}
\ No newline at end of file
+
+
+    // In-order cursor over the nodes of the tree, skipping the ones holding
+    // the (ascending) values in removed[0..count-1]
+    private static final class Survivors {
+        private final RangeIterator nodes;
+        private final int[] removed;
+        private final int count;
+        private int next;
+
+        Survivors(RangeIterator nodes, int[] removed, int count) {
+            this.nodes = nodes;
+            this.removed = removed;
+            this.count = count;
+        }
+
+        Node next() {
+            while (true) {
+                Node node = nodes.nextNode();
+                if ((next < count) && (node.value == removed[next]))
+                    next++;
+                else
+                    return node;
+            }
+        }
+    }
+
+
+    // The three results of split(); one instance is reused by a whole
+    // insertAll() / deleteAll() call.
+    private static final class Split {
+        Node left, middle, right;
+    }
+
+
+    /**
+     *  Class: SetOperationTask
+     *
+     *  Parallel form of setOperation(). After splitting 'a' around the root of
+     *  'b', the two halves share no nodes, so the left half is forked while
+     *  the current thread works on the right one. Sub-problems smaller than
+     *  PARALLEL_THRESHOLD run sequentially to keep the task overhead low.
+     */
+
+    private final class SetOperationTask extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+        private final int operation;
+        private final Node a, b;
+
+        SetOperationTask(int operation, Node a, Node b) {
+            this.operation = operation;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        protected Node compute() {
+            if ((a == null) || (b == null))
+                return setOperationBase(operation, a, b);
+
+            Split split = new Split();
+            if (getSize(a) + getSize(b) <= PARALLEL_THRESHOLD)
+                return setOperation(operation, a, b, split);
+
+            Node bLeft = b.leftChild, bRight = b.rightChild;
+            split(a, b.value, split);
+
+            SetOperationTask leftTask = new SetOperationTask(operation, split.left, bLeft);
+            leftTask.fork();
+            Node right = new SetOperationTask(operation, split.right, bRight).compute();
+            Node left  = leftTask.join();
+
+            return combine(operation, left, b, split.middle, right);
+        }
+    }
+
+
+    /**
+     *  Class: CopyTask
+     *
+     *  Copies a [sub]tree node for node, keeping its shape, heights and
+     *  sizes. Subtrees larger than PARALLEL_THRESHOLD copy their left half in
+     *  a forked task.
+     */
+
+    private final class CopyTask extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+        private final Node node;
+
+        CopyTask(Node node) { this.node = node; }
+
+        @Override
+        protected Node compute() {
+            if (getSize(node) <= PARALLEL_THRESHOLD)
+                return copy(node);
+
+            CopyTask leftTask = new CopyTask(node.leftChild);
+            leftTask.fork();
+            Node copy = newCopy(node);
+            copy.rightChild = new CopyTask(node.rightChild).compute();
+            copy.leftChild  = leftTask.join();
+            return copy;
+        }
+
+        private Node copy(Node node) {
+            if (node == null)
+                return null;
+
+            Node copy = newCopy(node);
+            copy.leftChild  = copy(node.leftChild);
+            copy.rightChild = copy(node.rightChild);
+            return copy;
+        }
+
+        private Node newCopy(Node node) {
+            Node copy = new Node(node.value);
+            copy.height = node.height;
+            copy.size   = node.size;
+            copy.hash   = node.hash;
+            return copy;
+        }
+    }
+
+
+    /**
+     *  Class: PreorderIterator
+     *
+     *  Pre-order cursor. The stack holds the next node plus the right children
+     *  still to be visited, at most one per level of the tree.
+     */
+
+    private static final class PreorderIterator implements PrimitiveIterator.OfInt {
+        private final Node[] stack = new Node[MAX_PATH + 1];
+        private int top = -1;
+
+        PreorderIterator(Node root) {
+            if (root != null)
+                stack[++top] = root;
+        }
+
+        public boolean hasNext() { return top >= 0; }
+
+        public int nextInt() {
+            if (top < 0)
+                throw new NoSuchElementException();
+
+            Node node = stack[top--];
+            if (node.rightChild != null)
+                stack[++top] = node.rightChild;
+            if (node.leftChild != null)
+                stack[++top] = node.leftChild;
+            return node.value;
+        }
+    }
+
+
+    /**
+     *  Class: RangeIterator
+     *
+     *  In-order cursor over the values v with lo <= v < hi, ascending or
+     *  descending. For the ascending case the stack holds the in-range
+     *  ancestors whose value has not been returned yet (the left spine still
+     *  to visit); it starts as the nodes >= lo on the path towards 'lo', so
+     *  out-of-range subtrees are never entered. The descending case is the
+     *  mirror image. Bounds are longs so that a full range can be expressed.
+     */
+
+    static final class RangeIterator implements PrimitiveIterator.OfInt {
+        private final Node[] stack = new Node[MAX_PATH];
+        private final long lo, hi;
+        private final boolean descending;
+        private int top = -1;
+
+        RangeIterator(Node root, long lo, long hi, boolean descending) {
+            this.lo = lo;
+            this.hi = hi;
+            this.descending = descending;
+
+            Node node = root;
+            while (node != null) {
+                if (descending ? node.value < hi : node.value >= lo) {
+                    stack[++top] = node;
+                    node = descending ? node.rightChild : node.leftChild;
+                } else {
+                    node = descending ? node.leftChild : node.rightChild;
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            if (top < 0)
+                return false;
+
+            int next = stack[top].value;
+            return descending ? next >= lo : next < hi;
+        }
+
+        public int nextInt() { return nextNode().value; }
+
+        Node nextNode() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            Node node = stack[top--];
+            if (descending) {
+                for (Node n = node.leftChild; n != null; n = n.rightChild)
+                    stack[++top] = n;
+            } else {
+                for (Node n = node.rightChild; n != null; n = n.leftChild)
+                    stack[++top] = n;
+            }
+            return node;
+        }
+    }
+
+
+    /**
+     *  Class: PostorderIterator
+     *
+     *  Post-order cursor. The stack is the path from the root to the next
+     *  node, which is always the first leaf (going left when possible) of the
+     *  subtree still to be visited.
+     */
+
+    private static final class PostorderIterator implements PrimitiveIterator.OfInt {
+        private final Node[] stack = new Node[MAX_PATH];
+        private int top = -1;
+
+        PostorderIterator(Node root) { descend(root); }
+
+        private void descend(Node node) {
+            while (node != null) {
+                stack[++top] = node;
+                node = node.leftChild != null ? node.leftChild : node.rightChild;
+            }
+        }
+
+        public boolean hasNext() { return top >= 0; }
+
+        public int nextInt() {
+            if (top < 0)
+                throw new NoSuchElementException();
+
+            Node node = stack[top--];
+            if (top >= 0 && stack[top].leftChild == node)
+                descend(stack[top].rightChild);
+            return node.value;
+        }
+    }
+
+
+    /**
+     *  Class: LevelOrderIterator
+     *
+     *  Level-order (breadth-first) cursor that does not need a queue. Each
+     *  level L is produced by a pre-order walk that never descends below depth
+     *  L and returns only the nodes at depth exactly L; the walk keeps just
+     *  the root-to-node path, whose length is the node's depth. Level L costs
+     *  the number of nodes at depth <= L. That adds up to O(n) for a perfect
+     *  tree, whose last level holds half the nodes, but not for AVL trees in
+     *  general: in a Fibonacci-shaped (sparsest) tree the deepest Theta(log n)
+     *  levels are nearly empty, so each of their walks visits most of the
+     *  tree, and the total is Theta(n log n). A full traversal is therefore
+     *  O(n log n), the price of needing only the fixed path array instead of
+     *  a queue that grows to the width of the widest level.
+     */
+
+    private static final class LevelOrderIterator implements PrimitiveIterator.OfInt {
+        private final Node[] path = new Node[MAX_PATH];
+        private final Node root;
+        private int top = -1;       // depth of the current node, -1 when done
+        private int level = 0;      // depth of the level being produced
+
+        LevelOrderIterator(Node root) {
+            this.root = root;
+            if (root != null)
+                path[++top] = root;
+        }
+
+        public boolean hasNext() { return top >= 0; }
+
+        public int nextInt() {
+            if (top < 0)
+                throw new NoSuchElementException();
+
+            int value = path[top].value;
+            do {
+                if (!advance()) {
+                    if (++level > root.height) {
+                        top = -1;
+                        break;
+                    }
+                    path[top = 0] = root;
+                }
+            } while (top != level);
+            return value;
+        }
+
+        // Move to the next node in pre-order at depth <= level; false at the end
+        private boolean advance() {
+            Node node = path[top];
+            if (top < level) {
+                if (node.leftChild != null) {
+                    path[++top] = node.leftChild;
+                    return true;
+                }
+                if (node.rightChild != null) {
+                    path[++top] = node.rightChild;
+                    return true;
+                }
+            }
+
+            while (top > 0) {
+                Node child  = path[top--];
+                Node parent = path[top];
+                if (parent.leftChild == child && parent.rightChild != null) {
+                    path[++top] = parent.rightChild;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file is a benchmark driver comparing the recursive update path of
+ * LUC_AVLTree with the iterative one selected by 'new LUC_AVLTree(true)', with
+ * the bulk-load constructor, and with the array-backed ArrayAVLTree. It also
+ * finds the batch size at which insertAll() / deleteAll() start to beat a
+ * loop of insert() / delete() calls, and compares the fork-join set
+ * operations with TreeProblems.different() on boxed TreeSets and removeIf()
+ * with a loop of delete() calls. BinaryTree's level-order insert is timed
+ * alongside for reference, and so are the full and sampled invariant checks
+ * and the lookups of a frozen copy (see LUC_AVLTree.freeze()). Loading a
+ * saved tree with readFrom() is compared with parsing the text export.
+ *
+ * Usage: java AVLTreeBenchmark [size]
+ *
+ * The set operations run in the common ForkJoinPool; its size can be set with
+ * -Djava.util.concurrent.ForkJoinPool.common.parallelism=N.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+public class AVLTreeBenchmark {
+
+  public static void main(String[] args) {
+      int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+      BenchmarkRunner runner = new BenchmarkRunner(5, 10);
+
+      int[] sequential = new int[size];
+      for (int i = 0; i < size; i++)
+          sequential[i] = i;
+
+      int[] random = sequential.clone();
+      Random rnd = new Random(42);
+      for (int i = size - 1; i > 0; i--) {
+          int j = rnd.nextInt(i + 1);
+          int tmp = random[i]; random[i] = random[j]; random[j] = tmp;
+      }
+
+      System.out.println("\nLUC_AVLTree insert / delete, " + size + " keys");
+
+      for (boolean iterative : new boolean[] { false, true }) {
+          String mode = iterative ? "iterative" : "recursive";
+
+          runner.run("insert sequential (" + mode + ")", size,
+                     () -> new LUC_AVLTree(iterative),
+                     tree -> insertAll(tree, sequential));
+
+          runner.run("insert random (" + mode + ")", size,
+                     () -> new LUC_AVLTree(iterative),
+                     tree -> insertAll(tree, random));
+
+          runner.run("delete random (" + mode + ")", size,
+                     () -> insertAll(new LUC_AVLTree(iterative), sequential),
+                     tree -> deleteAll(tree, random));
+      }
+
+      runner.run("bulk load sorted (LUC_AVLTree(int[]))", size,
+                 () -> sequential,
+                 keys -> new LUC_AVLTree(keys));
+
+      runner.run("insert random (ArrayAVLTree)", size,
+                 () -> new ArrayAVLTree(),
+                 tree -> { for (int key : random) tree.insert(key); return tree; });
+
+      runner.run("delete random (ArrayAVLTree)", size,
+                 () -> { ArrayAVLTree tree = new ArrayAVLTree(size);
+                         for (int key : sequential) tree.insert(key);
+                         return tree; },
+                 tree -> { for (int key : random) tree.delete(key); return tree; });
+
+      runner.run("insert (BinaryTree level-order append)", size,
+                 () -> new BinaryTree(),
+                 tree -> { for (int key : random) tree.insert(key); return tree; });
+
+      batchCrossover(runner, size, rnd);
+      setAlgebra(runner, size, rnd);
+      removeIfSweep(runner, size);
+      validation(runner, sequential);
+      frozenLookups(runner, random, rnd);
+      serialization(runner, random);
+  }
+
+  // Save a tree of 'keys' in the text form of writePreorder() and in the
+  // binary form of writeTo(), in memory, and time loading each back: the
+  // text by parsing and re-inserting every value, the binary by readFrom().
+  private static void serialization(BenchmarkRunner runner, int[] keys) {
+      LUC_AVLTree tree = new LUC_AVLTree(keys);
+      ByteArrayOutputStream text = new ByteArrayOutputStream(), binary = new ByteArrayOutputStream();
+      try {
+          tree.writePreorder(Channels.newChannel(text));
+          tree.writeTo(Channels.newChannel(binary));
+      } catch (IOException e) {
+          throw new UncheckedIOException(e);
+      }
+
+      System.out.println("\nSaving and loading a tree of " + keys.length + " keys: text "
+                         + text.size() + " bytes, binary " + binary.size() + " bytes");
+
+      runner.run("load text, insert each value", keys.length,
+                 () -> text.toByteArray(), AVLTreeBenchmark::parsePreorder);
+      runner.run("readFrom()", keys.length,
+                 () -> binary.toByteArray(),
+                 bytes -> { try {
+                                return LUC_AVLTree.readFrom(Channels.newChannel(new ByteArrayInputStream(bytes)));
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            } });
+  }
+
+  private static LUC_AVLTree parsePreorder(byte[] text) {
+      LUC_AVLTree tree = new LUC_AVLTree(true);
+      int value = 0;
+      boolean negative = false;
+      for (byte c : text) {
+          if (c == ' ') {
+              tree.insert(negative ? -value : value);
+              value = 0;
+              negative = false;
+          } else if (c == '-') {
+              negative = true;
+          } else {
+              value = 10 * value + (c - '0');
+          }
+      }
+      return tree;
+  }
+
+  // Lookups in a tree built by random inserts, whose nodes are scattered
+  // over the heap, and in its frozen copy. The gap only opens up once the
+  // tree is well beyond the L3 cache (about 40 bytes per node), so pass a
+  // size in the millions.
+  private static void frozenLookups(BenchmarkRunner runner, int[] keys, Random rnd) {
+      LUC_AVLTree tree = new LUC_AVLTree(true);
+      for (int key : keys)
+          tree.insert(key);
+      FrozenAVLTree frozen = tree.freeze();
+
+      int[] probes = new int[1 << 20];
+      for (int i = 0; i < probes.length; i++)
+          probes[i] = rnd.nextInt(keys.length + keys.length / 2);
+
+      System.out.println("\nLookups in a tree of " + keys.length + " keys and in its frozen copy");
+
+      runner.run("contains (LUC_AVLTree)", probes.length,
+                 () -> tree, t -> { int found = 0; for (int v : probes) if (t.contains(v)) found++; return found; });
+      runner.run("contains (FrozenAVLTree)", probes.length,
+                 () -> frozen, f -> { int found = 0; for (int v : probes) if (f.contains(v)) found++; return found; });
+      runner.run("floor (LUC_AVLTree)", probes.length,
+                 () -> tree, t -> { long sum = 0; for (int v : probes) sum += t.floor(v).orElse(0); return sum; });
+      runner.run("floor (FrozenAVLTree)", probes.length,
+                 () -> frozen, f -> { long sum = 0; for (int v : probes) sum += f.floor(v).orElse(0); return sum; });
+      runner.run("rank (LUC_AVLTree)", probes.length,
+                 () -> tree, t -> { long sum = 0; for (int v : probes) sum += t.rank(v); return sum; });
+      runner.run("rank (FrozenAVLTree)", probes.length,
+                 () -> frozen, f -> { long sum = 0; for (int v : probes) sum += f.rank(v); return sum; });
+  }
+
+  // The full O(n) invariant check against the sampled one, on a valid tree
+  // so that both run to completion.
+  private static void validation(BenchmarkRunner runner, int[] keys) {
+      LUC_AVLTree tree = new LUC_AVLTree(keys);
+
+      System.out.println("\nInvariant checks on a tree of " + keys.length + " keys");
+
+      runner.run("checkInvariants()", keys.length,
+                 () -> tree, t -> t.checkInvariants());
+
+      for (int paths : new int[] { 16, 256, 4096 })
+          runner.run("checkInvariantsSampled(" + paths + ")", paths,
+                     () -> tree, t -> t.checkInvariantsSampled(paths));
+  }
+
+  // Remove every k-th key of a tree of 'size' keys, once with a delete()
+  // per key and once with removeIf().
+  private static void removeIfSweep(BenchmarkRunner runner, int size) {
+      int[] keys = new int[size];
+      for (int i = 0; i < size; i++)
+          keys[i] = i;
+
+      System.out.println("\nremoveIf vs per-key delete on a tree of " + size + " keys");
+
+      for (int every : new int[] { 1000, 100, 20, 10, 2 }) {
+          runner.run("delete loop, 1/" + every + " of keys", size,
+                     () -> new LUC_AVLTree(keys),
+                     tree -> { for (int key = 0; key < size; key += every) tree.delete(key);
+                               return tree; });
+
+          runner.run("removeIf(),  1/" + every + " of keys", size,
+                     () -> new LUC_AVLTree(keys),
+                     tree -> tree.removeIf(key -> key % every == 0));
+      }
+  }
+
+  // Two sets of 'size' random keys each, drawn from [0, 2 * size) so that
+  // they overlap by about half.
+  private static void setAlgebra(BenchmarkRunner runner, int size, Random rnd) {
+      int[] a = new int[size], b = new int[size];
+      for (int i = 0; i < size; i++) {
+          a[i] = rnd.nextInt(2 * size);
+          b[i] = rnd.nextInt(2 * size);
+      }
+
+      LUC_AVLTree treeA = new LUC_AVLTree(a), treeB = new LUC_AVLTree(b);
+      Set<Integer> setA = new TreeSet<>(), setB = new TreeSet<>();
+      for (int i = 0; i < size; i++) {
+          setA.add(a[i]);
+          setB.add(b[i]);
+      }
+
+      System.out.println("\nSet operations on two sets of " + size + " keys, "
+                         + ForkJoinPool.getCommonPoolParallelism() + " fork-join threads");
+
+      runner.run("different (TreeSet<Integer>)", 2L * size,
+                 () -> null, unused -> TreeProblems.different(setA, setB));
+      runner.run("symmetricDifference (LUC_AVLTree)", 2L * size,
+                 () -> null, unused -> LUC_AVLTree.symmetricDifference(treeA, treeB));
+      runner.run("union (LUC_AVLTree)", 2L * size,
+                 () -> null, unused -> LUC_AVLTree.union(treeA, treeB));
+      runner.run("intersection (LUC_AVLTree)", 2L * size,
+                 () -> null, unused -> LUC_AVLTree.intersection(treeA, treeB));
+      runner.run("difference (LUC_AVLTree)", 2L * size,
+                 () -> null, unused -> LUC_AVLTree.difference(treeA, treeB));
+  }
+
+  // Apply batches of growing size to a tree of 'size' keys, once through a
+  // per-key loop and once through insertAll() / deleteAll(). The tree holds
+  // the even keys, inserted batches are odd keys and deleted batches even ones.
+  private static void batchCrossover(BenchmarkRunner runner, int size, Random rnd) {
+      int[] evens = new int[size];
+      for (int i = 0; i < size; i++)
+          evens[i] = 2 * i;
+
+      System.out.println("\nBatched vs per-key updates on a tree of " + size + " keys");
+
+      for (int batch = 10; batch <= size; batch *= 10) {
+          int[] inserts = new int[batch];
+          int[] deletes = new int[batch];
+          for (int i = 0; i < batch; i++) {
+              inserts[i] = 2 * rnd.nextInt(size) + 1;
+              deletes[i] = 2 * rnd.nextInt(size);
+          }
+
+          runner.run("insert loop,   batch " + batch, batch,
+                     () -> new LUC_AVLTree(evens),
+                     tree -> insertAll(tree, inserts));
+
+          runner.run("insertAll(),   batch " + batch, batch,
+                     () -> new LUC_AVLTree(evens),
+                     tree -> { tree.insertAll(inserts); return tree; });
+
+          runner.run("delete loop,   batch " + batch, batch,
+                     () -> new LUC_AVLTree(evens),
+                     tree -> deleteAll(tree, deletes));
+
+          runner.run("deleteAll(),   batch " + batch, batch,
+                     () -> new LUC_AVLTree(evens),
+                     tree -> { tree.deleteAll(deletes); return tree; });
+      }
+  }
+
+  private static LUC_AVLTree insertAll(LUC_AVLTree tree, int[] keys) {
+      for (int key : keys)
+          tree.insert(key);
+      return tree;
+  }
+
+  private static LUC_AVLTree deleteAll(LUC_AVLTree tree, int[] keys) {
+      for (int key : keys)
+          tree.delete(key);
+      return tree;
+  }
+}
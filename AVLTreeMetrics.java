@@ -0,0 +1,169 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file contains the optional instrumentation of LUC_AVLTree:
+ * counters of the rotations, search-path lengths, node updates, ignored
+ * duplicates and misses behind the tree's insert and delete.
+ *
+ */
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ *  Class 'AVLTreeMetrics'
+ *
+ *  Process-wide counters shared by every LUC_AVLTree, enabled by starting
+ *  the JVM with -Dluc.avl.metrics=true. ENABLED is a static final constant,
+ *  so when metrics are off every 'if (AVLTreeMetrics.ENABLED)' block in the
+ *  tree is dead code to the JIT and is compiled out: the disabled tree runs
+ *  exactly the code it ran before the counters existed.
+ *
+ *  The counters are LongAdders, which stripe their cells across threads, so
+ *  trees updated by different threads (and the fork-join set operations,
+ *  whose rotations run in pool threads) do not contend on one cache line.
+ *
+ *  What is counted:
+ *    - rotations of each kind (LL, LR, RR, RL), wherever the tree rotates:
+ *      insert, delete, and the joins of the batch and set operations;
+ *    - inserts and deletes, and how many of them were ignored because the
+ *      value was already present (duplicates) or absent (misses);
+ *    - the search-path length of each insert and delete: the # of nodes
+ *      compared against on the way down (including, for a delete, the walk
+ *      to the in-order successor), as a histogram of exact lengths;
+ *    - node updates: re-computations of a node's height, size and hash,
+ *      from any operation. Divided by the # of inserts and deletes this is
+ *      the retracing work done per update.
+ *
+ *  Public methods:
+ *   static Snapshot snapshot() - current values of every counter
+ *   static void     reset()    - sets every counter back to zero
+ *
+ */
+
+final class AVLTreeMetrics {
+    static final boolean ENABLED = Boolean.getBoolean("luc.avl.metrics");
+
+    // Longest path the histogram tells apart; longer ones share its last bucket
+    static final int MAX_PATH_LENGTH = 64;
+
+    static final LongAdder LL_ROTATIONS = new LongAdder();
+    static final LongAdder LR_ROTATIONS = new LongAdder();
+    static final LongAdder RR_ROTATIONS = new LongAdder();
+    static final LongAdder RL_ROTATIONS = new LongAdder();
+    static final LongAdder NODE_UPDATES = new LongAdder();
+
+    private static final LongAdder INSERTS    = new LongAdder();
+    private static final LongAdder DELETES    = new LongAdder();
+    private static final LongAdder DUPLICATES = new LongAdder();
+    private static final LongAdder MISSES     = new LongAdder();
+    private static final LongAdder[] PATH_LENGTHS = new LongAdder[MAX_PATH_LENGTH + 1];
+
+    static {
+        for (int i = 0; i < PATH_LENGTHS.length; i++)
+            PATH_LENGTHS[i] = new LongAdder();
+    }
+
+    private AVLTreeMetrics() { }
+
+    static void recordInsert(int pathLength, boolean duplicate) {
+        INSERTS.increment();
+        if (duplicate)
+            DUPLICATES.increment();
+        PATH_LENGTHS[Math.min(pathLength, MAX_PATH_LENGTH)].increment();
+    }
+
+    static void recordDelete(int pathLength, boolean miss) {
+        DELETES.increment();
+        if (miss)
+            MISSES.increment();
+        PATH_LENGTHS[Math.min(pathLength, MAX_PATH_LENGTH)].increment();
+    }
+
+    public static Snapshot snapshot() {
+        long[] pathLengths = new long[PATH_LENGTHS.length];
+        for (int i = 0; i < pathLengths.length; i++)
+            pathLengths[i] = PATH_LENGTHS[i].sum();
+
+        return new Snapshot(LL_ROTATIONS.sum(), LR_ROTATIONS.sum(), RR_ROTATIONS.sum(), RL_ROTATIONS.sum(),
+                            INSERTS.sum(), DELETES.sum(), DUPLICATES.sum(), MISSES.sum(),
+                            NODE_UPDATES.sum(), pathLengths);
+    }
+
+    public static void reset() {
+        for (LongAdder counter : new LongAdder[] { LL_ROTATIONS, LR_ROTATIONS, RR_ROTATIONS, RL_ROTATIONS,
+                                                   NODE_UPDATES, INSERTS, DELETES, DUPLICATES, MISSES })
+            counter.reset();
+        for (LongAdder counter : PATH_LENGTHS)
+            counter.reset();
+    }
+
+
+    /**
+     *  Class 'Snapshot'
+     *
+     *  The counters at one point in time. Each counter is read on its own,
+     *  so a snapshot taken while trees are being updated is not atomic: two
+     *  counters may disagree by the operations in flight.
+     *
+     *  pathLengths[k] is the # of inserts and deletes whose search path had
+     *  exactly k nodes; the last bucket also counts the longer ones.
+     *
+     */
+
+    static final class Snapshot {
+        public final long llRotations, lrRotations, rrRotations, rlRotations;
+        public final long inserts, deletes, duplicates, misses;
+        public final long nodeUpdates;
+        private final long[] pathLengths;
+
+        Snapshot(long llRotations, long lrRotations, long rrRotations, long rlRotations,
+                 long inserts, long deletes, long duplicates, long misses,
+                 long nodeUpdates, long[] pathLengths) {
+            this.llRotations = llRotations;
+            this.lrRotations = lrRotations;
+            this.rrRotations = rrRotations;
+            this.rlRotations = rlRotations;
+            this.inserts     = inserts;
+            this.deletes     = deletes;
+            this.duplicates  = duplicates;
+            this.misses      = misses;
+            this.nodeUpdates = nodeUpdates;
+            this.pathLengths = pathLengths;
+        }
+
+        public long[] pathLengths()     { return pathLengths.clone(); }
+
+        public double nodeUpdatesPerOperation() {
+            long operations = inserts + deletes;
+            return operations == 0 ? 0 : (double) nodeUpdates / operations;
+        }
+
+        // Smallest path length that at least 'fraction' of the operations did not exceed
+        public int pathLengthPercentile(double fraction) {
+            long total = 0;
+            for (long count : pathLengths)
+                total += count;
+
+            long target = (long) Math.ceil(fraction * total), seen = 0;
+            for (int length = 0; length < pathLengths.length; length++) {
+                seen += pathLengths[length];
+                if ((seen >= target) && (seen > 0))
+                    return length;
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "rotations LL=" + llRotations + " LR=" + lrRotations
+                   + " RR=" + rrRotations + " RL=" + rlRotations
+                   + ", inserts=" + inserts + " (duplicates=" + duplicates + ")"
+                   + ", deletes=" + deletes + " (misses=" + misses + ")"
+                   + String.format(", node updates/op=%.2f", nodeUpdatesPerOperation())
+                   + ", path length p50=" + pathLengthPercentile(0.50)
+                   + " p99=" + pathLengthPercentile(0.99)
+                   + " max=" + pathLengthPercentile(1.0);
+        }
+    }
+}
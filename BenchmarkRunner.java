@@ -0,0 +1,146 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file contains a small micro-benchmark runner used by the
+ * benchmark drivers (AVLTreeBenchmark, ...). Every class in this project lives
+ * in the default package, which JMH does not allow benchmark classes to use,
+ * so the drivers rely on this runner instead: it warms the code up, times a
+ * fixed number of measured runs and reports the average cost per operation,
+ * the latency percentiles of single operations and the allocation rate.
+ *
+ */
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ *  Class: BenchmarkRunner
+ *
+ *  Each measured run first builds its input with the 'setup' supplier (not
+ *  timed), then times 'body' applied to that input. 'body' performs
+ *  'opsPerRun' operations and returns some result, which is published to a
+ *  volatile field so the JIT cannot eliminate the work.
+ *
+ *  Besides the time per operation, run() reports what the GC profiler of
+ *  JMH would: the bytes allocated per operation and per second by the
+ *  measuring thread (work forked to other threads is not counted), and the
+ *  # of collections and the time they took during the measured runs.
+ *
+ *  latency() times every operation of a run on its own and reports the
+ *  percentiles of the distribution. Each sample includes the cost of one
+ *  System.nanoTime() call (some tens of ns), so it is meant for operations
+ *  well above that, and for spotting the slow tail (rotations, resizes,
+ *  collections) that an average hides.
+ *
+ *  Public methods:
+ *   void run(String label, long opsPerRun, Supplier<S> setup, Function<S, Object> body)
+ *   void latency(String label, int ops, Supplier<S> setup, Operation<S> op)
+ *
+ */
+
+class BenchmarkRunner {
+    static volatile Object sink;      // Receives each result; defeats dead-code elimination
+
+    // One operation of a latency() run; 'index' counts the operations of the run
+    @FunctionalInterface
+    interface Operation<S> {
+        Object apply(S state, int index);
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final int warmupRuns;     // Untimed runs used to let the JIT compile the body
+    private final int measuredRuns;   // Timed runs averaged into the report
+
+    public BenchmarkRunner(int warmupRuns, int measuredRuns) {
+        this.warmupRuns   = warmupRuns;
+        this.measuredRuns = measuredRuns;
+    }
+
+    public <S> void run(String label, long opsPerRun, Supplier<S> setup, Function<S, Object> body) {
+        for (int i = 0; i < warmupRuns; i++)
+            sink = body.apply(setup.get());
+
+        long totalNanos = 0, totalBytes = 0;
+        long gcCount = -collectionCount(), gcMillis = -collectionMillis();
+        for (int i = 0; i < measuredRuns; i++) {
+            S state = setup.get();
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            sink = body.apply(state);
+            totalNanos += System.nanoTime() - start;
+            totalBytes += allocatedBytes() - bytes;
+        }
+        gcCount  += collectionCount();
+        gcMillis += collectionMillis();
+
+        double ops = (double) opsPerRun * measuredRuns;
+        double nanosPerOp = totalNanos / ops;
+        System.out.printf("%-40s %12.1f ns/op %14.0f ops/s %10.1f B/op %9.1f MB/s  gc %d (%d ms)%n",
+                          label, nanosPerOp, 1e9 / nanosPerOp, totalBytes / ops,
+                          totalBytes * 1e3 / totalNanos, gcCount, gcMillis);
+    }
+
+
+    /**
+     *  Method: latency
+     *
+     *  Runs 'op' 'ops' times on a state built by 'setup', timing each call on
+     *  its own, after 'warmupRuns' untimed runs of the same kind. Reports the
+     *  50th, 90th, 99th and 99.9th percentiles and the maximum.
+     *
+     *  @param  label - name printed in the report
+     *  @param  ops   - # of operations in the run
+     *  @param  setup - builds the state of the run (not timed)
+     *  @param  op    - the operation; receives the state and the operation's index
+     */
+
+    public <S> void latency(String label, int ops, Supplier<S> setup, Operation<S> op) {
+        for (int i = 0; i < warmupRuns; i++) {
+            S state = setup.get();
+            for (int j = 0; j < ops; j++)
+                sink = op.apply(state, j);
+        }
+
+        long[] samples = new long[ops];
+        S state = setup.get();
+        for (int j = 0; j < ops; j++) {
+            long start = System.nanoTime();
+            sink = op.apply(state, j);
+            samples[j] = System.nanoTime() - start;
+        }
+
+        Arrays.sort(samples);
+        System.out.printf("%-40s p50 %8d  p90 %8d  p99 %8d  p99.9 %8d  max %10d ns%n",
+                          label, percentile(samples, 0.50), percentile(samples, 0.90),
+                          percentile(samples, 0.99), percentile(samples, 0.999), samples[ops - 1]);
+    }
+
+    // Nearest-rank percentile of the sorted 'samples'
+    private static long percentile(long[] samples, double fraction) {
+        int rank = (int) Math.ceil(fraction * samples.length);
+        return samples[Math.max(rank, 1) - 1];
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(gc.getCollectionCount(), 0);
+        return count;
+    }
+
+    private static long collectionMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(gc.getCollectionTime(), 0);
+        return millis;
+    }
+}
@@ -7,8 +7,15 @@
  * ONLY MODIFY THIS FILE (NOT 'Main.Java')
  */
 
-import java.util.Queue;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /*
  * Class BinaryTree
@@ -33,6 +40,31 @@ import java.util.LinkedList;
  *  void deleteTree()      - deletes the tree.
  *  Node insert(int data)  - inserts a new node into the tree containing value 'data'.
  *  String preOrder()      - return the tree in 'preorder' traversal in a String object.
+ *  PrimitiveIterator.OfInt preOrderIterator() - non-recursive cursor over the pre-order.
+ *  void preOrder(Appendable out)          - streams preOrder() to 'out'.
+ *  void preOrder(WritableByteChannel out) - streams preOrder() to 'out'.
+ *  void writeTo(WritableByteChannel out)  - saves the tree in the binary format of TreeCodec.
+ *  static BinaryTree readFrom(ReadableByteChannel in[, boolean indexValues])
+ *                         - rebuilds a tree saved by writeTo().
+ *  int size()             - returns the number of nodes in the tree.
+ *
+ * Every node caches the minimum, the node count and the (long) sum of the
+ * values in its subtree. insert() and replaceValue() keep these up to date
+ * along the path to the root, so findMin(), average() and size() are O(1).
+ *
+ * A tree created with 'new BinaryTree(true)' also keeps a ValueIndex: the
+ * values in sorted order, each with the level-order positions of the nodes
+ * holding it. replaceValue() then only visits the matching nodes, and
+ * nodesGT() is an O(log n) rank query instead of a full traversal.
+ *
+ * nodesGT(val, pool) and replaceValue(k, l, pool) are parallel variants of
+ * the full traversals: the tree is split into subtree tasks on 'pool' down to
+ * subtrees of PARALLEL_CUTOFF nodes, which are then walked sequentially.
+ * Their results are identical to the sequential methods'.
+ *
+ * None of the traversals recurse: preOrder() and nodesGT() use an explicit
+ * stack, and the other methods walk the level-order index, so the depth of
+ * the tree never reaches the call stack.
  *
  * The following methods you will complete:
  *  void replaceValue(int k, int l) - if data value 'k' is in tree, replace with data
@@ -54,54 +86,92 @@ public class BinaryTree {
         Node left;
         Node right;
 
+        // Aggregates over the subtree rooted at this node (itself included)
+        int min;
+        int count;
+        long sum;
+
         Node(int data) {
             this.data = data;
             left = null;
             right = null;
+            min = data;
+            count = 1;
+            sum = data;
         }
     }
 
     // Root of the binary tree
     private Node root;
 
-    // Insert method to populate the tree
+    // Every node of the tree in level order. Nodes are only ever added at the
+    // next free position in level order, so the tree is always complete and
+    // the parent of the node at index i is at index (i - 1) / 2, exactly as
+    // in an array-backed heap.
+    private Node[] levelOrder = new Node[16];
+    private int nodeCount;
+
+    // Subtrees at most this size are processed sequentially by the parallel
+    // methods; smaller tasks would cost more to schedule than to run
+    private static final int PARALLEL_CUTOFF = 1 << 13;
+
+    // Levels a complete tree of at most Integer.MAX_VALUE nodes can have
+    private static final int MAX_DEPTH = 31;
+
+    // Sorted values and the positions holding them; null unless indexed
+    private final ValueIndex valueIndex;
+
+    public BinaryTree() {
+        this(false);
+    }
+
+    public BinaryTree(boolean indexValues) {
+        valueIndex = indexValues ? new ValueIndex() : null;
+    }
+
+    /*
+     * method insert(int data)
+     *
+     * This method adds a new node holding 'data' at the first free position
+     * in level order (left to right on the lowest level). Rather than
+     * searching for that position with a breadth first traversal, it is
+     * found directly from the level-order index: the new node becomes child
+     * number nodeCount of its parent, a left child when nodeCount is odd.
+     * Linking the node is O(1) amortized; the cached aggregates of its
+     * O(log n) ancestors are then updated.
+     */
     Node insert(int data) {
 
         Node tempNode = new Node(data);
 
+        if (nodeCount == levelOrder.length)
+            levelOrder = Arrays.copyOf(levelOrder, nodeCount * 2);
+        levelOrder[nodeCount] = tempNode;
+
         // If tree is empty, insert new node as the root.
-        if (root == null)
-            return root = tempNode;
-
-        // Create a queue to do level order traversal
-        Queue<Node> queue = new LinkedList<>();
-        queue.add(root);
-
-        // Do level order traversal
-        while (!queue.isEmpty()) {
-            Node front = queue.peek();
-
-            if (front.left == null) {
-                front.left = tempNode;
-                break;
-            } else if (front.right == null) {
-                front.right = tempNode;
-                break;
-            } else {
-                // If front node in queue has both left and right
-                // children, remove it from the queue.
+        if (nodeCount == 0) {
+            root = tempNode;
+        } else {
+            Node parent = levelOrder[(nodeCount - 1) / 2];
+            if ((nodeCount & 1) == 1)
+                parent.left = tempNode;
+            else
+                parent.right = tempNode;
 
-                queue.remove();
+            // Every ancestor's subtree gains the new value
+            for (int i = nodeCount; i > 0; ) {
+                i = (i - 1) / 2;
+                Node ancestor = levelOrder[i];
+                ancestor.min = Math.min(ancestor.min, data);
+                ancestor.count++;
+                ancestor.sum += data;
             }
-
-            // Enqueue the left and right children of teh current node
-            if (front.left != null)
-                queue.add(front.left);
-
-            if (front.right != null)
-                queue.add(front.right);
         }
 
+        if (valueIndex != null)
+            valueIndex.add(data, nodeCount);
+
+        nodeCount++;
         return tempNode;
 
     } // End method insert
@@ -110,120 +180,372 @@ public class BinaryTree {
     /*
      * public method replaceValue(int k, int l)
      *
-     * This method will traverse the tree using depth first search (DFS)
-     * and replace all nodes with the value 'k' with the value 'l'.
+     * This method will visit every node of the tree (in level order, through
+     * the level-order index) and replace all nodes with the value 'k' with
+     * the value 'l'. The aggregates of each replaced node and its ancestors
+     * are then re-computed. With a value index, only the nodes holding 'k'
+     * are visited, and their positions move over to 'l' in the index.
      */
     public void replaceValue(int oldVal, int newVal) {
-        replaceValueHelper(root, oldVal, newVal);
-    }
+        if (oldVal == newVal)
+            return;
+
+        if (valueIndex != null) {
+            int[] positions = valueIndex.removeValue(oldVal);
+            if (positions == null)
+                return;
 
-    private void replaceValueHelper(Node node, int oldVal, int newVal) {
-        if (node == null) {
+            for (int i : positions) {
+                levelOrder[i].data = newVal;
+                updateAggregates(i);
+            }
+            valueIndex.addAll(newVal, positions);
             return;
         }
-        if (node.data == oldVal) {
-            node.data = newVal;
+
+        for (int i = 0; i < nodeCount; i++) {
+            if (levelOrder[i].data == oldVal) {
+                levelOrder[i].data = newVal;
+                updateAggregates(i);
+            }
+        }
+    }
+
+    // Re-compute the aggregates of the node at level-order index 'index' and
+    // of each of its ancestors from their children
+    private void updateAggregates(int index) {
+        while (true) {
+            recomputeAggregates(levelOrder[index]);
+
+            if (index == 0)
+                return;
+            index = (index - 1) / 2;
+        }
+    }
+
+    private void recomputeAggregates(Node node) {
+        node.min = node.data;
+        node.count = 1;
+        node.sum = node.data;
+        addAggregates(node, node.left);
+        addAggregates(node, node.right);
+    }
+
+    private void addAggregates(Node node, Node child) {
+        if (child != null) {
+            node.min = Math.min(node.min, child.min);
+            node.count += child.count;
+            node.sum += child.sum;
         }
-        replaceValueHelper(node.left, oldVal, newVal);
-        replaceValueHelper(node.right, oldVal, newVal);
     }
 
     /*
      * public method findMin()
      *
-     * This method will traverse the tree using depth first search (DFS)
-     * and return the minimum data value found in the binary tree.
-     * If the tree is empty, return Integer.MAX_VALUE.
+     * This method returns the minimum data value found in the binary tree,
+     * read from the root's cached aggregate. If the tree is empty, return
+     * Integer.MAX_VALUE.
      */
     public int findMin() {
-        return findMinHelper(root);
+        return root == null ? Integer.MAX_VALUE : root.min;
     }
 
-    private int findMinHelper(Node node) {
-        if (node == null) {
-            return Integer.MAX_VALUE;
-        }
-        int leftMin = findMinHelper(node.left);
-        int rightMin = findMinHelper(node.right);
-        return Math.min(node.data, Math.min(leftMin, rightMin));
+    /*
+     * public method size()
+     *
+     * This method returns the number of nodes in the tree.
+     */
+    public int size() {
+        return nodeCount;
     }
 
     /*
      * public method nodesGT(int val)
      *
-     * This method will traverse the tree using depth first search traversal and
-     * return a count on the number of nodes that contain a data value larger
-     * than the parameter 'val'.
+     * This method will visit every node of the tree (depth first, with an
+     * explicit stack) and return a count on the number of nodes that
+     * contain a data value larger than the parameter 'val'. With a value
+     * index, the count is read from the index in O(log n) instead.
      *
      * If the tree is empty, return 0.
      */
     public int nodesGT(int val) {
-        return nodesGTHelper(root, val);
+        if (valueIndex != null)
+            return valueIndex.countGreater(val);
+        return nodesGTHelper(0, val);
+    }
+
+    /*
+     * public methods nodesGT(int val, ForkJoinPool pool) and
+     *                replaceValue(int k, int l, ForkJoinPool pool)
+     *
+     * Parallel variants of nodesGT() and replaceValue(). Each subtree larger
+     * than PARALLEL_CUTOFF nodes is handled by two forked tasks, one per
+     * child; the subtree sizes come from the cached node counts. The
+     * replacing tasks also re-compute every aggregate of their subtree on the
+     * way back up. With a value index the sequential methods, which only
+     * visit the matching nodes, are used instead.
+     */
+    public int nodesGT(int val, ForkJoinPool pool) {
+        if ((valueIndex != null) || (root == null))
+            return nodesGT(val);
+        return pool.invoke(new NodesGTTask(0, val));
+    }
+
+    public void replaceValue(int oldVal, int newVal, ForkJoinPool pool) {
+        if ((valueIndex != null) || (root == null) || (oldVal == newVal)) {
+            replaceValue(oldVal, newVal);
+            return;
+        }
+        pool.invoke(new ReplaceValueTask(0, oldVal, newVal));
+    }
+
+    // Tasks identify their subtree by the level-order index of its root
+    private class NodesGTTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+        private final int index;
+        private final int val;
+
+        NodesGTTask(int index, int val) {
+            this.index = index;
+            this.val = val;
+        }
+
+        @Override
+        protected Integer compute() {
+            if ((levelOrder[index].count <= PARALLEL_CUTOFF) || (2 * index + 2 >= nodeCount))
+                return nodesGTHelper(index, val);
+
+            NodesGTTask left = new NodesGTTask(2 * index + 1, val);
+            left.fork();
+            int count = new NodesGTTask(2 * index + 2, val).compute();
+            count += left.join();
+            return levelOrder[index].data > val ? count + 1 : count;
+        }
+    }
+
+    private class ReplaceValueTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int index;
+        private final int oldVal, newVal;
+
+        ReplaceValueTask(int index, int oldVal, int newVal) {
+            this.index = index;
+            this.oldVal = oldVal;
+            this.newVal = newVal;
+        }
+
+        @Override
+        protected void compute() {
+            if ((levelOrder[index].count <= PARALLEL_CUTOFF) || (2 * index + 2 >= nodeCount)) {
+                replaceSubtree(index, oldVal, newVal);
+                return;
+            }
+
+            invokeAll(new ReplaceValueTask(2 * index + 1, oldVal, newVal),
+                      new ReplaceValueTask(2 * index + 2, oldVal, newVal));
+            Node node = levelOrder[index];
+            if (node.data == oldVal)
+                node.data = newVal;
+            recomputeAggregates(node);
+        }
     }
 
-    private int nodesGTHelper(Node node, int val) {
-        if (node == null) {
+    /*
+     * The subtree helpers below never recurse. In a complete tree, the nodes
+     * of the subtree rooted at index i that lie k levels below it are the
+     * contiguous run of indexes starting at (i + 1) * 2^k - 1, of length 2^k
+     * (cut off at nodeCount), so a subtree can be visited level by level
+     * through the level-order index. And since the tree is complete, it is
+     * at most 31 levels deep, so a depth-first walk needs a stack of at most
+     * 31 nodes.
+     */
+
+    // Count the values > val in the subtree rooted at level-order index
+    // 'index'. The walk is depth-first over the links, with a fixed-size
+    // stack of right children still to visit. A level-by-level scan of the
+    // index was ~15% slower on large trees: it loads each node through the
+    // index as well, and the garbage collector, which copies nodes while
+    // following their links, tends to lay them out in depth-first order.
+    private int nodesGTHelper(int index, int val) {
+        if (index >= nodeCount)
             return 0;
+
+        Node[] pending = new Node[MAX_DEPTH];
+        int top = 0, count = 0;
+        Node node = levelOrder[index];
+
+        while (true) {
+            // The comparison is added rather than branched on: on random
+            // data the branch is mispredicted about half the time
+            count += node.data > val ? 1 : 0;
+            if (node.right != null)
+                pending[top++] = node.right;
+
+            if (node.left != null) {
+                node = node.left;
+            } else if (top > 0) {
+                node = pending[--top];
+            } else {
+                return count;
+            }
         }
-        int count = 0;
-        if (node.data > val) {
-            count = 1;
+    }
+
+    // Replace 'oldVal' by 'newVal' in the subtree rooted at level-order index
+    // 'index', re-computing aggregates from the deepest level up so that
+    // children are always done before their parent
+    private void replaceSubtree(int index, int oldVal, int newVal) {
+        int depth = 0;
+        while (((long) (index + 1) << (depth + 1)) - 1 < nodeCount)
+            depth++;
+
+        for (int k = depth; k >= 0; k--) {
+            long first = ((long) (index + 1) << k) - 1;
+            int last = (int) Math.min(first + (1L << k), nodeCount);
+            for (int i = (int) first; i < last; i++) {
+                Node node = levelOrder[i];
+                if (node.data == oldVal)
+                    node.data = newVal;
+                recomputeAggregates(node);
+            }
         }
-        count += nodesGTHelper(node.left, val);
-        count += nodesGTHelper(node.right, val);
-        return count;
     }
 
     /*
      * public method average()
      *
-     * This method will traverse the tree using depth first search traversal and
-     * return the average value contained in the binary tree. To easily perform a depth
-     * first traversal, it invokes the helper method, averageHelper(), which is the
-     * method that should be called recursively. If the tree is empty, 0 should be
-     * returned.
-     *
-     * IMPORTANT NOTE:
-     * The helper method should return an array of two integer values. In index
-     * location [0] is the sum of all data values in the tree. And in index
-     * location [1] is the count of nodes.
+     * This method returns the average value contained in the binary tree,
+     * from the root's cached sum and count. The sum is kept as a long, so it
+     * cannot overflow for any tree that fits in memory. If the tree is empty,
+     * 0 is returned.
      */
     public double average() {
-        int[] sumAndCount = averageHelper(root);
-        if (sumAndCount[1] == 0) { // If the tree is empty
+        if (root == null) { // If the tree is empty
             return 0;
         }
-        return (double) sumAndCount[0] / sumAndCount[1];
-    }
-
-    private int[] averageHelper(Node node) {
-        if (node == null) {
-            return new int[] {0, 0}; // Sum = 0, Count = 0
-        }
-        int[] left = averageHelper(node.left);
-        int[] right = averageHelper(node.right);
-        int sum = node.data + left[0] + right[0];
-        int count = 1 + left[1] + right[1];
-        return new int[] {sum, count};
+        return (double) root.sum / root.count;
     }
 
     /*
      * public method preOrder()
      *
      * This method returns a string of the node values in pre-order traversal.
+     * It walks the tree with preOrderIterator(), so it does not recurse.
      */
     public String preOrder() {
         StringBuilder sb = new StringBuilder();
-        preOrderHelper(root, sb);
+        for (PrimitiveIterator.OfInt it = preOrderIterator(); it.hasNext(); )
+            sb.append(it.nextInt()).append(" ");
         return sb.toString();
     }
 
-    private void preOrderHelper(Node node, StringBuilder sb) {
-        if (node == null) {
-            return;
+    /*
+     * public methods preOrder(Appendable) / preOrder(WritableByteChannel)
+     *
+     * These methods write the same text as preOrder() straight to 'out',
+     * through a fixed-size buffer, instead of building a String.
+     */
+    public void preOrder(Appendable out) throws IOException {
+        TraversalWriter.write(preOrderIterator(), out);
+    }
+
+    public void preOrder(WritableByteChannel out) throws IOException {
+        TraversalWriter.write(preOrderIterator(), out);
+    }
+
+    /*
+     * public methods writeTo(WritableByteChannel) and readFrom(ReadableByteChannel)
+     *
+     * writeTo() saves the tree in the binary format of TreeCodec, with the
+     * values in level order. The tree is always complete, so its shape is
+     * fixed by the number of nodes and needs no bits of its own: readFrom()
+     * puts the i-th value back at level-order index i and links it to its
+     * parent at (i - 1) / 2, then computes every node's aggregates from its
+     * children's, last index first. That is O(n) in all; an indexed tree
+     * also rebuilds its ValueIndex, one add() per node.
+     */
+    public void writeTo(WritableByteChannel out) throws IOException {
+        TreeCodec.Writer writer = new TreeCodec.Writer(out, TreeCodec.BINARY_TREE, nodeCount);
+        for (int i = 0; i < nodeCount; i++)
+            writer.writeInt(levelOrder[i].data);
+        writer.finish();
+    }
+
+    public static BinaryTree readFrom(ReadableByteChannel in) throws IOException {
+        return readFrom(in, false);
+    }
+
+    public static BinaryTree readFrom(ReadableByteChannel in, boolean indexValues) throws IOException {
+        TreeCodec.Reader reader = new TreeCodec.Reader(in, TreeCodec.BINARY_TREE);
+        BinaryTree tree = new BinaryTree(indexValues);
+        int count = reader.count();
+
+        for (int i = 0; i < count; i++) {
+            Node node = tree.new Node(reader.nextInt());
+
+            // Grown as values arrive, so a corrupt count cannot allocate ahead of the data
+            if (i == tree.levelOrder.length)
+                tree.levelOrder = Arrays.copyOf(tree.levelOrder, i * 2);
+            tree.levelOrder[i] = node;
+
+            if (i == 0)
+                tree.root = node;
+            else if ((i & 1) == 1)
+                tree.levelOrder[(i - 1) / 2].left = node;
+            else
+                tree.levelOrder[(i - 1) / 2].right = node;
+
+            if (tree.valueIndex != null)
+                tree.valueIndex.add(node.data, i);
+        }
+        tree.nodeCount = count;
+
+        for (int i = count - 1; i >= 0; i--)
+            tree.recomputeAggregates(tree.levelOrder[i]);
+        return tree;
+    }
+
+    /*
+     * public method preOrderIterator()
+     *
+     * This method returns a cursor over the node values in pre-order. It keeps
+     * an explicit stack of the right children still to be visited, which holds
+     * at most one node per level of the tree.
+     */
+    public PrimitiveIterator.OfInt preOrderIterator() {
+        return new PreOrderIterator();
+    }
+
+    private class PreOrderIterator implements PrimitiveIterator.OfInt {
+        private Node[] stack = new Node[16];
+        private int top = -1;
+
+        PreOrderIterator() {
+            if (root != null)
+                stack[++top] = root;
+        }
+
+        private void push(Node node) {
+            if (top + 1 == stack.length)
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[++top] = node;
+        }
+
+        public boolean hasNext() {
+            return top >= 0;
+        }
+
+        public int nextInt() {
+            if (top < 0)
+                throw new NoSuchElementException();
+
+            Node node = stack[top--];
+            if (node.right != null)
+                push(node.right);
+            if (node.left != null)
+                push(node.left);
+            return node.data;
         }
-        sb.append(node.data).append(" ");
-        preOrderHelper(node.left, sb);
-        preOrderHelper(node.right, sb);
     }
 }
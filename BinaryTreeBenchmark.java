@@ -0,0 +1,139 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file is a benchmark driver comparing the sequential BinaryTree
+ * traversals (nodesGT, replaceValue) with their fork-join variants on pools
+ * of 1, 4 and 16 threads, and with the recursive walk over the node links
+ * they used before they were made iterative.
+ *
+ * Usage: java BinaryTreeBenchmark [size]
+ *
+ */
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class BinaryTreeBenchmark {
+
+  public static void main(String[] args) {
+      int size = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+      BenchmarkRunner runner = new BenchmarkRunner(5, 10);
+
+      BinaryTree tree = new BinaryTree();
+      Random rnd = new Random(42);
+      for (int i = 0; i < size; i++)
+          tree.insert(rnd.nextInt(1000));
+
+      System.out.println("\nBinaryTree traversals, " + size + " nodes, "
+                         + Runtime.getRuntime().availableProcessors() + " cores");
+
+      // Values stay in [0, 1000) so the tree is the same after every run
+      runner.run("nodesGT (sequential)", size,
+                 () -> tree, t -> t.nodesGT(500));
+      runner.run("replaceValue (sequential)", size,
+                 () -> tree, t -> { t.replaceValue(7, 7 + 1000); t.replaceValue(7 + 1000, 7); return t; });
+
+      for (int threads : new int[] { 1, 4, 16 }) {
+          ForkJoinPool pool = new ForkJoinPool(threads);
+
+          runner.run("nodesGT (" + threads + " threads)", size,
+                     () -> tree, t -> t.nodesGT(500, pool));
+          runner.run("replaceValue (" + threads + " threads)", size,
+                     () -> tree, t -> { t.replaceValue(7, 7 + 1000, pool);
+                                        t.replaceValue(7 + 1000, 7, pool);
+                                        return t; });
+          pool.shutdown();
+      }
+
+      recursiveBaseline(runner, tree, size);
+  }
+
+  /*
+   * The helpers now walk BinaryTree's level-order index instead of
+   * recursing over the links. BinaryTree is always complete, so the tree is
+   * balanced and the recursion was never deep; the question is only whether
+   * the iterative walk costs more. LinkedNode rebuilds the same complete
+   * tree for the recursive code to run on. It has the same fields as
+   * BinaryTree's nodes, plus 'owner' standing in for their reference to the
+   * enclosing tree, so both take the same space, and an array of the nodes
+   * in level order is kept alive the way BinaryTree keeps 'levelOrder'.
+   */
+  private static final class LinkedNode {
+      int data, min, count;
+      long sum;
+      LinkedNode left, right;
+      Object owner;
+
+      LinkedNode(int data, Object owner) {
+          this.data = data;
+          this.owner = owner;
+      }
+  }
+
+  private static LinkedNode[] linkedLevelOrder;
+
+  private static void recursiveBaseline(BenchmarkRunner runner, BinaryTree tree, int size) {
+      LinkedNode[] nodes = new LinkedNode[size];
+      Random values = new Random(42);
+      for (int i = 0; i < size; i++) {
+          nodes[i] = new LinkedNode(values.nextInt(1000), nodes);
+          if (i > 0) {
+              LinkedNode parent = nodes[(i - 1) / 2];
+              if (i % 2 == 1)
+                  parent.left = nodes[i];
+              else
+                  parent.right = nodes[i];
+          }
+      }
+      linkedLevelOrder = nodes;
+      LinkedNode root = nodes[0];
+      replaceRecursive(root, -1, -1);       // fills in the aggregates
+
+      // Let the collector lay out both trees before timing either
+      System.gc();
+
+      System.out.println("\nIterative (level-order index) vs recursive (links), " + size + " nodes");
+
+      for (int round = 0; round < 2; round++) {
+          runner.run("nodesGT (iterative)", size,
+                     () -> tree, t -> t.nodesGT(500));
+          runner.run("nodesGT (recursive)", size,
+                     () -> root, r -> nodesGTRecursive(r, 500));
+          runner.run("replaceValue (iterative)", size,
+                     () -> tree, t -> { t.replaceValue(7, 7 + 1000); t.replaceValue(7 + 1000, 7); return t; });
+          runner.run("replaceValue (recursive)", size,
+                     () -> root, r -> { replaceRecursive(r, 7, 7 + 1000); replaceRecursive(r, 7 + 1000, 7); return r; });
+      }
+  }
+
+  private static int nodesGTRecursive(LinkedNode node, int val) {
+      if (node == null)
+          return 0;
+      int count = node.data > val ? 1 : 0;
+      return count + nodesGTRecursive(node.left, val) + nodesGTRecursive(node.right, val);
+  }
+
+  private static void replaceRecursive(LinkedNode node, int oldVal, int newVal) {
+      if (node == null)
+          return;
+
+      replaceRecursive(node.left, oldVal, newVal);
+      replaceRecursive(node.right, oldVal, newVal);
+      if (node.data == oldVal)
+          node.data = newVal;
+
+      node.min = node.data;
+      node.count = 1;
+      node.sum = node.data;
+      addAggregates(node, node.left);
+      addAggregates(node, node.right);
+  }
+
+  private static void addAggregates(LinkedNode node, LinkedNode child) {
+      if (child != null) {
+          node.min = Math.min(node.min, child.min);
+          node.count += child.count;
+          node.sum += child.sum;
+      }
+  }
+}
@@ -0,0 +1,830 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file is a thread-safe variant of the AVL tree in 'AVLTree.java',
+ * following the concurrent relaxed-balance AVL tree of Bronson, Casper, Chafi
+ * and Olukotun, "A Practical Concurrent Binary Search Tree" (PPoPP 2010).
+ *
+ */
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ *  Class 'ConcurrentAVLTree'
+ *
+ *  A set of int values that may be used from any number of threads without
+ *  external locking. It keeps LUC_AVLTree's semantics: inserting a value that
+ *  is already present, or deleting one that is absent, silently does nothing.
+ *
+ *  How it works:
+ *
+ *   - Lookups take no locks. Every node carries a version number ('ovl',
+ *     optimistic version lock) that a rotation bumps when it moves the node
+ *     down, shrinking the range of values its subtree covers. A reader
+ *     records a node's version before following one of its child links and
+ *     re-checks it afterwards (hand-over-hand validation); if it changed, the
+ *     reader backs up a level and retries from a node whose range is still
+ *     valid.
+ *   - Writers lock only the nodes they change: the parent of a new leaf, the
+ *     node being removed and its parent, or the two to four nodes involved in
+ *     a rotation. Locks are always taken top-down, parent before child.
+ *   - Balance is relaxed. After an update the writer walks towards the root
+ *     repairing heights and rotating where needed (fixHeightAndRebalance),
+ *     but a concurrent writer may temporarily leave a node out of balance;
+ *     whoever damages a node is responsible for repairing it.
+ *   - A deleted value whose node still has two children is not unlinked
+ *     straight away: the node becomes a "routing" node (present == false) and
+ *     is spliced out later, once a rotation leaves it with at most one child.
+ *
+ *  The tree hangs off a sentinel 'rootHolder' node whose right child is the
+ *  real root, so the root can be rotated like any other node.
+ *
+ *  Public methods:
+ *   void    removeAll()          - Remove all values of the tree (empties tree)
+ *   boolean checkEmpty()         - Returns boolean value if tree is empty or not
+ *   void    insert(int value)    - inserts 'value' into the tree
+ *   void    delete(int value)    - removes 'value' from the tree
+ *   boolean contains(int value)  - returns true if 'value' is in the tree
+ *   int     size()               - returns the number of values in the tree
+ *
+ *  size() and checkEmpty() are exact when no update is in progress; while
+ *  updates run concurrently they may not reflect the most recent ones.
+ *  removeAll() should likewise only be called while no update is running.
+ *
+ */
+
+class ConcurrentAVLTree {
+
+    // Version ('ovl') encoding. Unlinked nodes have the reserved value 1;
+    // otherwise bit 1 is set while a rotation is shrinking the node, and each
+    // completed shrink adds SHRINK_COUNT_INCR.
+    private static final long UNLINKED          = 1L;
+    private static final long SHRINKING         = 2L;
+    private static final long SHRINK_COUNT_INCR = 4L;
+
+    // Results of an attempt that must be retried from the caller's node
+    private static final int ABSENT = 0, PRESENT = 1, RETRY = 2;
+
+    // nodeCondition() results; any value >= 0 is a new height to install
+    private static final int UNLINK_REQUIRED    = -1;
+    private static final int REBALANCE_REQUIRED = -2;
+    private static final int NOTHING_REQUIRED   = -3;
+
+    private static final int SPIN_COUNT  = 100;
+    private static final int YIELD_COUNT = 0;
+
+    /**
+     *  Class: Node
+     *
+     *  Node of the concurrent tree. Unlike LUC_AVLTree's Node, the height of a
+     *  leaf is 1 and an empty subtree has height 0, as in the paper. Every
+     *  field a reader may see is volatile; all writes happen while holding the
+     *  node's monitor.
+     */
+
+    private static final class Node {
+        final int value;
+        volatile int height;
+        volatile long ovl;
+        volatile boolean present;       // false for routing nodes
+        volatile Node parent;
+        volatile Node leftChild, rightChild;
+
+        Node(int value, int height, boolean present, Node parent) {
+            this.value   = value;
+            this.height  = height;
+            this.present = present;
+            this.parent  = parent;
+        }
+
+        Node child(boolean left)         { return left ? leftChild : rightChild; }
+
+        void setChild(boolean left, Node child) {
+            if (left) leftChild = child;
+            else rightChild = child;
+        }
+
+        // Wait for the rotation that set the SHRINKING bit in 'version' to
+        // finish: spin briefly, then block on the monitor the rotation holds.
+        void waitUntilShrinkCompleted(long version) {
+            if ((version & SHRINKING) == 0)
+                return;
+
+            for (int tries = 0; tries < SPIN_COUNT; tries++)
+                if (ovl != version)
+                    return;
+
+            for (int tries = 0; tries < YIELD_COUNT; tries++) {
+                Thread.yield();
+                if (ovl != version)
+                    return;
+            }
+
+            synchronized (this) { }
+        }
+    }
+
+    private final Node rootHolder = new Node(Integer.MIN_VALUE, 1, false, null);
+    private final LongAdder count = new LongAdder();
+
+    public boolean checkEmpty()          { return size() == 0; }
+    public int size()                    { return (int) count.sum(); }
+
+    public void removeAll() {
+        synchronized (rootHolder) {
+            rootHolder.rightChild = null;
+            rootHolder.height = 1;
+            count.reset();
+        }
+    }
+
+    private static boolean isShrinkingOrUnlinked(long version) {
+        return (version & (SHRINKING | UNLINKED)) != 0;
+    }
+
+    private static boolean isUnlinked(long version)  { return version == UNLINKED; }
+    private static long beginShrink(long version)    { return version | SHRINKING; }
+    private static long endShrink(long version)      { return version + SHRINK_COUNT_INCR; }
+    private static int getHeight(Node node)          { return node == null ? 0 : node.height; }
+
+
+    /**
+     *  Method: contains
+     *
+     *  Lock-free lookup. Starts at the root and descends with attemptGet(),
+     *  which retries locally or reports RETRY when the node it came from was
+     *  shrunk by a rotation in the meantime.
+     *
+     *  @param  value - value to look for
+     *
+     *  @return true if 'value' is in the tree
+     */
+
+    public boolean contains(int value) {
+        while (true) {
+            Node right = rootHolder.rightChild;
+            if (right == null)
+                return false;
+
+            if (value == right.value)
+                return right.present;
+
+            long version = right.ovl;
+            if (isShrinkingOrUnlinked(version)) {
+                right.waitUntilShrinkCompleted(version);
+            } else if (right == rootHolder.rightChild) {
+                int result = attemptGet(value, right, value < right.value, version);
+                if (result != RETRY)
+                    return result == PRESENT;
+            }
+        }
+    }
+
+    private int attemptGet(int value, Node node, boolean left, long nodeVersion) {
+        while (true) {
+            Node child = node.child(left);
+
+            if (child == null) {
+                if (node.ovl != nodeVersion)
+                    return RETRY;
+                return ABSENT;
+            }
+
+            if (value == child.value)
+                return child.present ? PRESENT : ABSENT;
+
+            long childVersion = child.ovl;
+            if (isShrinkingOrUnlinked(childVersion)) {
+                child.waitUntilShrinkCompleted(childVersion);
+                if (node.ovl != nodeVersion)
+                    return RETRY;
+            } else if (child != node.child(left)) {
+                if (node.ovl != nodeVersion)
+                    return RETRY;
+            } else {
+                if (node.ovl != nodeVersion)
+                    return RETRY;
+
+                // Both the link into 'node' and the link into 'child' were
+                // valid at the same time, so 'node' no longer matters.
+                int result = attemptGet(value, child, value < child.value, childVersion);
+                if (result != RETRY)
+                    return result;
+            }
+        }
+    }
+
+    public void insert(int value)        { update(value, true); }
+    public void delete(int value)        { update(value, false); }
+
+
+    /**
+     *  Method: update
+     *
+     *  Common driver for insert (present == true) and delete (present ==
+     *  false). Mirrors contains(), but descends with attemptUpdate(), which
+     *  locks the nodes it modifies.
+     *
+     *  @param  value   - value to insert or delete
+     *  @param  present - true to insert 'value', false to delete it
+     */
+
+    private void update(int value, boolean present) {
+        while (true) {
+            Node right = rootHolder.rightChild;
+
+            if (right == null) {
+                if (!present || attemptInsertIntoEmpty(value))
+                    return;
+            } else {
+                long version = right.ovl;
+                if (isShrinkingOrUnlinked(version)) {
+                    right.waitUntilShrinkCompleted(version);
+                } else if (right == rootHolder.rightChild) {
+                    if (attemptUpdate(value, present, rootHolder, right, version) != RETRY)
+                        return;
+                }
+            }
+        }
+    }
+
+    private boolean attemptInsertIntoEmpty(int value) {
+        synchronized (rootHolder) {
+            if (rootHolder.rightChild != null)
+                return false;
+
+            rootHolder.rightChild = new Node(value, 1, true, rootHolder);
+            rootHolder.height = 2;
+            count.increment();
+            return true;
+        }
+    }
+
+
+    /**
+     *  Method: attemptUpdate
+     *
+     *  Searches below 'node' for 'value' and applies the update there. A new
+     *  leaf is attached while holding only the lock of its parent, after
+     *  checking (under that lock) that the parent has not been shrunk since
+     *  it was reached.
+     *
+     *  @param  value       - value to insert or delete
+     *  @param  present     - true to insert 'value', false to delete it
+     *  @param  parent      - node 'node' was reached from
+     *  @param  node        - current node
+     *  @param  nodeVersion - version of 'node' read when it was reached
+     *
+     *  @return RETRY if the caller must retry from its own node, else ABSENT
+     */
+
+    private int attemptUpdate(int value, boolean present, Node parent, Node node, long nodeVersion) {
+        if (value == node.value)
+            return attemptNodeUpdate(present, parent, node);
+
+        boolean left = value < node.value;
+
+        while (true) {
+            Node child = node.child(left);
+
+            if (node.ovl != nodeVersion)
+                return RETRY;
+
+            if (child == null) {
+                // Value is absent; nothing to do for a delete
+                if (!present)
+                    return ABSENT;
+
+                Node damaged;
+                synchronized (node) {
+                    if (node.ovl != nodeVersion)
+                        return RETRY;
+
+                    if (node.child(left) != null) {
+                        // Lost a race with a concurrent insert; retry here
+                        continue;
+                    }
+
+                    node.setChild(left, new Node(value, 1, true, node));
+                    count.increment();
+                    damaged = fixHeight(node);
+                }
+                fixHeightAndRebalance(damaged);
+                return ABSENT;
+            }
+
+            long childVersion = child.ovl;
+            if (isShrinkingOrUnlinked(childVersion)) {
+                child.waitUntilShrinkCompleted(childVersion);
+            } else if (child == node.child(left)) {
+                if (node.ovl != nodeVersion)
+                    return RETRY;
+
+                if (attemptUpdate(value, present, node, child, childVersion) != RETRY)
+                    return ABSENT;
+            }
+        }
+    }
+
+
+    /**
+     *  Method: attemptNodeUpdate
+     *
+     *  Applies the update to 'node', which holds 'value'. Inserting into a
+     *  routing node just marks it present again. Deleting a node with at most
+     *  one child unlinks it (locking its parent, then the node); deleting one
+     *  with two children turns it into a routing node.
+     *
+     *  @param  present - true to insert, false to delete
+     *  @param  parent  - parent of 'node' when it was reached
+     *  @param  node    - node holding the value being updated
+     *
+     *  @return RETRY if the caller must retry from its own node, else ABSENT
+     */
+
+    private int attemptNodeUpdate(boolean present, Node parent, Node node) {
+        if (!present && !node.present)
+            return ABSENT;
+
+        if (!present && (node.leftChild == null || node.rightChild == null)) {
+            Node damaged;
+            synchronized (parent) {
+                if (isUnlinked(parent.ovl) || node.parent != parent)
+                    return RETRY;
+
+                synchronized (node) {
+                    if (!node.present)
+                        return ABSENT;
+                    if (!attemptUnlink(parent, node))
+                        return RETRY;
+                }
+                count.decrement();
+                damaged = fixHeight(parent);
+            }
+            fixHeightAndRebalance(damaged);
+            return ABSENT;
+        }
+
+        synchronized (node) {
+            if (isUnlinked(node.ovl))
+                return RETRY;
+
+            if (node.present == present)
+                return ABSENT;
+
+            // The node may have lost a child since it was checked above
+            if (!present && (node.leftChild == null || node.rightChild == null))
+                return RETRY;
+
+            node.present = present;
+            if (present)
+                count.increment();
+            else
+                count.decrement();
+            return ABSENT;
+        }
+    }
+
+    // Splice out 'node', which must have at most one child. Both 'parent' and
+    // 'node' must be locked. Heights are left for the caller to repair.
+    private boolean attemptUnlink(Node parent, Node node) {
+        Node parentLeft  = parent.leftChild;
+        Node parentRight = parent.rightChild;
+        if (parentLeft != node && parentRight != node)
+            return false;
+
+        Node left  = node.leftChild;
+        Node right = node.rightChild;
+        if (left != null && right != null)
+            return false;
+
+        Node splice = left != null ? left : right;
+        if (parentLeft == node)
+            parent.leftChild = splice;
+        else
+            parent.rightChild = splice;
+        if (splice != null)
+            splice.parent = parent;
+
+        node.ovl = UNLINKED;
+        node.present = false;
+        return true;
+    }
+
+
+    /**
+     *  Method: nodeCondition
+     *
+     *  Reads 'node' and its children without locks and reports what repair
+     *  it needs, if any. The reads are not atomic, but any thread that
+     *  changes a node promises to repair it, so a NOTHING_REQUIRED answer
+     *  never leaves damage behind unattended.
+     *
+     *  @param  node - node to inspect
+     *
+     *  @return UNLINK_REQUIRED, REBALANCE_REQUIRED, NOTHING_REQUIRED, or the
+     *          corrected height of 'node'
+     */
+
+    private int nodeCondition(Node node) {
+        Node left  = node.leftChild;
+        Node right = node.rightChild;
+
+        if ((left == null || right == null) && !node.present)
+            return UNLINK_REQUIRED;
+
+        int height      = node.height;
+        int leftHeight  = getHeight(left);
+        int rightHeight = getHeight(right);
+
+        int newHeight = 1 + Math.max(leftHeight, rightHeight);
+        int balance   = leftHeight - rightHeight;
+
+        if (balance < -1 || balance > 1)
+            return REBALANCE_REQUIRED;
+
+        return height != newHeight ? newHeight : NOTHING_REQUIRED;
+    }
+
+    /**
+     *  Method: fixHeightAndRebalance
+     *
+     *  Walks up from 'node' repairing heights, splicing out routing nodes
+     *  with fewer than two children and rotating. Unlike the paper, the walk
+     *  does not stop at the first node that needs nothing: a rotation that
+     *  reports a deeper damaged node has also changed the height its parent
+     *  sees, and that parent would otherwise never be revisited. Undamaged
+     *  nodes cost only a few unlocked reads.
+     *
+     *  @param  node - lowest damaged node, or null
+     */
+
+    private void fixHeightAndRebalance(Node node) {
+        while (node != null && node.parent != null) {
+            // Whoever unlinked the node is responsible for its parent
+            if (isUnlinked(node.ovl))
+                return;
+
+            int condition = nodeCondition(node);
+            Node next = null;
+
+            if (condition == NOTHING_REQUIRED) {
+                next = null;
+            } else if (condition != UNLINK_REQUIRED && condition != REBALANCE_REQUIRED) {
+                synchronized (node) {
+                    next = fixHeight(node);
+                }
+            } else {
+                Node parent = node.parent;
+                synchronized (parent) {
+                    if (!isUnlinked(parent.ovl) && node.parent == parent) {
+                        synchronized (node) {
+                            next = rebalance(parent, node);
+                        }
+                    } else {
+                        next = node;        // parent changed; retry
+                    }
+                }
+            }
+            node = next != null ? next : node.parent;
+        }
+    }
+
+    // Repair the height of locked 'node'; returns the next damaged node this
+    // thread is responsible for, or null.
+    private Node fixHeight(Node node) {
+        int condition = nodeCondition(node);
+
+        switch (condition) {
+            case REBALANCE_REQUIRED:
+            case UNLINK_REQUIRED:
+                return node;
+            case NOTHING_REQUIRED:
+                return null;
+            default:
+                node.height = condition;
+                return node.parent;
+        }
+    }
+
+    // 'parent' and 'node' are locked. Returns the next damaged node, or null.
+    private Node rebalance(Node parent, Node node) {
+        Node left  = node.leftChild;
+        Node right = node.rightChild;
+
+        if ((left == null || right == null) && !node.present) {
+            if (attemptUnlink(parent, node))
+                return fixHeight(parent);
+            return node;
+        }
+
+        int height      = node.height;
+        int leftHeight  = getHeight(left);
+        int rightHeight = getHeight(right);
+        int newHeight   = 1 + Math.max(leftHeight, rightHeight);
+        int balance     = leftHeight - rightHeight;
+
+        if (balance > 1)
+            return rebalanceToRight(parent, node, left, rightHeight);
+        if (balance < -1)
+            return rebalanceToLeft(parent, node, right, leftHeight);
+        if (newHeight != height) {
+            node.height = newHeight;
+            return fixHeight(parent);
+        }
+        return null;
+    }
+
+
+    /**
+     *  Method: rebalanceToRight
+     *
+     *  The left subtree of 'node' is too tall: rotate right (the LL case), or
+     *  left-right (the LR case) when the left child leans right. Locks are
+     *  taken on the left child and, for the LR case, its right child; the
+     *  heights are re-read under those locks because they may have changed.
+     *
+     *  @return next damaged node, or null
+     */
+
+    private Node rebalanceToRight(Node parent, Node node, Node left, int rightHeight) {
+        synchronized (left) {
+            int leftHeight = left.height;
+            if (leftHeight - rightHeight <= 1)
+                return node;
+
+            Node leftRight = left.rightChild;
+            int leftLeftHeight0  = getHeight(left.leftChild);
+            int leftRightHeight0 = getHeight(leftRight);
+
+            if (leftLeftHeight0 >= leftRightHeight0)
+                return LLRotation(parent, node, left, rightHeight, leftLeftHeight0, leftRight, leftRightHeight0);
+
+            synchronized (leftRight) {
+                int leftRightHeight = leftRight.height;
+                if (leftLeftHeight0 >= leftRightHeight)
+                    return LLRotation(parent, node, left, rightHeight, leftLeftHeight0, leftRight, leftRightHeight);
+
+                // Only do the double rotation if it does not leave 'left'
+                // unbalanced, as that damage could not be reported
+                int leftRightLeftHeight = getHeight(leftRight.leftChild);
+                int b = leftLeftHeight0 - leftRightLeftHeight;
+                if (b >= -1 && b <= 1) {
+                    if (!((leftLeftHeight0 == 0 || leftRightLeftHeight == 0) && !left.present))
+                        return LRRotation(parent, node, left, rightHeight, leftLeftHeight0, leftRight, leftRightLeftHeight);
+
+                    // 'left' is a routing node that would be left with one
+                    // child. Rotate 'leftRight' above it instead; the rotation
+                    // reports 'left' as damaged, so it is spliced out and
+                    // 'node' is rebalanced again on the way up.
+                    return RRRotation(node, left, leftLeftHeight0, leftRight, leftRight.leftChild,
+                                      leftRightLeftHeight, getHeight(leftRight.rightChild));
+                }
+            }
+
+            // 'leftRight' is itself out of balance, which its damager will
+            // repair; fix 'left' first, 'node' is rebalanced afterwards
+            return rebalanceToLeft(node, left, leftRight, leftLeftHeight0);
+        }
+    }
+
+    // Mirror image of rebalanceToRight(): the RR and RL cases
+    private Node rebalanceToLeft(Node parent, Node node, Node right, int leftHeight) {
+        synchronized (right) {
+            int rightHeight = right.height;
+            if (leftHeight - rightHeight >= -1)
+                return node;
+
+            Node rightLeft = right.leftChild;
+            int rightLeftHeight0  = getHeight(rightLeft);
+            int rightRightHeight0 = getHeight(right.rightChild);
+
+            if (rightRightHeight0 >= rightLeftHeight0)
+                return RRRotation(parent, node, leftHeight, right, rightLeft, rightLeftHeight0, rightRightHeight0);
+
+            synchronized (rightLeft) {
+                int rightLeftHeight = rightLeft.height;
+                if (rightRightHeight0 >= rightLeftHeight)
+                    return RRRotation(parent, node, leftHeight, right, rightLeft, rightLeftHeight, rightRightHeight0);
+
+                int rightLeftRightHeight = getHeight(rightLeft.rightChild);
+                int b = rightRightHeight0 - rightLeftRightHeight;
+                if (b >= -1 && b <= 1) {
+                    if (!((rightRightHeight0 == 0 || rightLeftRightHeight == 0) && !right.present))
+                        return RLRotation(parent, node, leftHeight, right, rightLeft, rightRightHeight0, rightLeftRightHeight);
+
+                    return LLRotation(node, right, rightLeft, rightRightHeight0, getHeight(rightLeft.leftChild),
+                                      rightLeft.rightChild, rightLeftRightHeight);
+                }
+            }
+
+            return rebalanceToRight(node, right, rightLeft, rightRightHeight0);
+        }
+    }
+
+    // Re-link 'oldChild' of locked 'parent' to 'newChild'
+    private static void replaceChild(Node parent, Node oldChild, Node newChild) {
+        if (parent.leftChild == oldChild)
+            parent.leftChild = newChild;
+        else
+            parent.rightChild = newChild;
+        newChild.parent = parent;
+    }
+
+
+    /**
+     *  Method: LLRotation
+     *
+     *  Single right rotation of 'node' (X) with its left child (Y), as in
+     *  LUC_AVLTree.LLRotation(). X moves down, so its version is marked as
+     *  shrinking for the duration, which makes concurrent readers wait or
+     *  retry rather than search a subtree that no longer holds their value.
+     *  Links are updated in an order that keeps every value reachable for
+     *  readers that have already passed X.
+     *
+     *  @return next damaged node, or null
+     */
+
+    private Node LLRotation(Node parent, Node x, Node y, int xrHeight, int ylHeight,
+                            Node yr, int yrHeight) {
+        long version = x.ovl;
+        x.ovl = beginShrink(version);
+
+        x.leftChild = yr;
+        if (yr != null)
+            yr.parent = x;
+
+        y.rightChild = x;
+        x.parent = y;
+
+        replaceChild(parent, x, y);
+
+        int xHeight = 1 + Math.max(yrHeight, xrHeight);
+        x.height = xHeight;
+        y.height = 1 + Math.max(ylHeight, xHeight);
+
+        x.ovl = endShrink(version);
+
+        // Repair whatever we can while the locks are still held
+        int xBalance = yrHeight - xrHeight;
+        if (xBalance < -1 || xBalance > 1)
+            return x;
+        if ((yr == null || xrHeight == 0) && !x.present)
+            return x;
+
+        int yBalance = ylHeight - xHeight;
+        if (yBalance < -1 || yBalance > 1)
+            return y;
+        if (ylHeight == 0 && !y.present)
+            return y;
+
+        return fixHeight(parent);
+    }
+
+    // Mirror image of LLRotation(): single left rotation of X with its right child Y
+    private Node RRRotation(Node parent, Node x, int xlHeight, Node y, Node yl,
+                            int ylHeight, int yrHeight) {
+        long version = x.ovl;
+        x.ovl = beginShrink(version);
+
+        x.rightChild = yl;
+        if (yl != null)
+            yl.parent = x;
+
+        y.leftChild = x;
+        x.parent = y;
+
+        replaceChild(parent, x, y);
+
+        int xHeight = 1 + Math.max(xlHeight, ylHeight);
+        x.height = xHeight;
+        y.height = 1 + Math.max(xHeight, yrHeight);
+
+        x.ovl = endShrink(version);
+
+        int xBalance = ylHeight - xlHeight;
+        if (xBalance < -1 || xBalance > 1)
+            return x;
+        if ((yl == null || xlHeight == 0) && !x.present)
+            return x;
+
+        int yBalance = yrHeight - xHeight;
+        if (yBalance < -1 || yBalance > 1)
+            return y;
+        if (yrHeight == 0 && !y.present)
+            return y;
+
+        return fixHeight(parent);
+    }
+
+
+    /**
+     *  Method: LRRotation
+     *
+     *  Double rotation making X's left-right grandchild Z the new top, as in
+     *  LUC_AVLTree.LRRotation(). Both X and its left child Y move down and
+     *  are marked as shrinking.
+     *
+     *  @return next damaged node, or null
+     */
+
+    private Node LRRotation(Node parent, Node x, Node y, int xrHeight, int ylHeight,
+                            Node z, int zlHeight) {
+        long xVersion = x.ovl;
+        long yVersion = y.ovl;
+
+        Node zl = z.leftChild;
+        Node zr = z.rightChild;
+        int zrHeight = getHeight(zr);
+
+        x.ovl = beginShrink(xVersion);
+        y.ovl = beginShrink(yVersion);
+
+        x.leftChild = zr;
+        if (zr != null)
+            zr.parent = x;
+
+        y.rightChild = zl;
+        if (zl != null)
+            zl.parent = y;
+
+        z.leftChild = y;
+        y.parent = z;
+        z.rightChild = x;
+        x.parent = z;
+
+        replaceChild(parent, x, z);
+
+        int xHeight = 1 + Math.max(zrHeight, xrHeight);
+        x.height = xHeight;
+        int yHeight = 1 + Math.max(ylHeight, zlHeight);
+        y.height = yHeight;
+        z.height = 1 + Math.max(yHeight, xHeight);
+
+        x.ovl = endShrink(xVersion);
+        y.ovl = endShrink(yVersion);
+
+        int xBalance = zrHeight - xrHeight;
+        if (xBalance < -1 || xBalance > 1)
+            return x;
+        if ((zr == null || xrHeight == 0) && !x.present)
+            return x;
+
+        int zBalance = yHeight - xHeight;
+        if (zBalance < -1 || zBalance > 1)
+            return z;
+
+        return fixHeight(parent);
+    }
+
+    // Mirror image of LRRotation(): X's right-left grandchild Z becomes the top
+    private Node RLRotation(Node parent, Node x, int xlHeight, Node y, Node z,
+                            int yrHeight, int zrHeight) {
+        long xVersion = x.ovl;
+        long yVersion = y.ovl;
+
+        Node zl = z.leftChild;
+        Node zr = z.rightChild;
+        int zlHeight = getHeight(zl);
+
+        x.ovl = beginShrink(xVersion);
+        y.ovl = beginShrink(yVersion);
+
+        x.rightChild = zl;
+        if (zl != null)
+            zl.parent = x;
+
+        y.leftChild = zr;
+        if (zr != null)
+            zr.parent = y;
+
+        z.rightChild = y;
+        y.parent = z;
+        z.leftChild = x;
+        x.parent = z;
+
+        replaceChild(parent, x, z);
+
+        int xHeight = 1 + Math.max(xlHeight, zlHeight);
+        x.height = xHeight;
+        int yHeight = 1 + Math.max(zrHeight, yrHeight);
+        y.height = yHeight;
+        z.height = 1 + Math.max(xHeight, yHeight);
+
+        x.ovl = endShrink(xVersion);
+        y.ovl = endShrink(yVersion);
+
+        int xBalance = zlHeight - xlHeight;
+        if (xBalance < -1 || xBalance > 1)
+            return x;
+        if ((zl == null || xlHeight == 0) && !x.present)
+            return x;
+
+        int zBalance = yHeight - xHeight;
+        if (zBalance < -1 || zBalance > 1)
+            return z;
+
+        return fixHeight(parent);
+    }
+}
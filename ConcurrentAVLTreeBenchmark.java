@@ -0,0 +1,110 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file is a multi-threaded throughput benchmark comparing
+ * ConcurrentAVLTree with a LUC_AVLTree guarded by one global lock.
+ *
+ * Usage: java ConcurrentAVLTreeBenchmark [maxThreads] [keyRange] [lookupPercent]
+ *
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ConcurrentAVLTreeBenchmark {
+
+  private static final long WARMUP_MILLIS  = 2_000;
+  private static final long MEASURE_MILLIS = 5_000;
+
+  // The operations a benchmark thread needs from either tree
+  private interface IntSet {
+      void insert(int value);
+      void delete(int value);
+      boolean contains(int value);
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+      int maxThreads    = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+      int keyRange      = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+      int lookupPercent = args.length > 2 ? Integer.parseInt(args[2]) : 90;
+
+      System.out.println("\n" + lookupPercent + "% lookups, the rest split evenly between insert and delete, "
+                         + keyRange + " keys");
+
+      for (int threads = 1; threads <= maxThreads; threads *= 2) {
+          run("ConcurrentAVLTree", threads, keyRange, lookupPercent, concurrentTree(keyRange));
+          run("LUC_AVLTree + global lock", threads, keyRange, lookupPercent, lockedTree(keyRange));
+      }
+  }
+
+  private static IntSet concurrentTree(int keyRange) {
+      ConcurrentAVLTree tree = new ConcurrentAVLTree();
+      for (int key = 0; key < keyRange; key += 2)
+          tree.insert(key);
+
+      return new IntSet() {
+          public void insert(int value)       { tree.insert(value); }
+          public void delete(int value)       { tree.delete(value); }
+          public boolean contains(int value)  { return tree.contains(value); }
+      };
+  }
+
+  private static IntSet lockedTree(int keyRange) {
+      LUC_AVLTree tree = new LUC_AVLTree();
+      for (int key = 0; key < keyRange; key += 2)
+          tree.insert(key);
+
+      return new IntSet() {
+          public synchronized void insert(int value)       { tree.insert(value); }
+          public synchronized void delete(int value)       { tree.delete(value); }
+          public synchronized boolean contains(int value)  { return tree.contains(value); }
+      };
+  }
+
+  private static void run(String label, int threads, int keyRange, int lookupPercent, IntSet set)
+          throws InterruptedException {
+      LongAdder operations = new LongAdder();
+      CountDownLatch done = new CountDownLatch(threads);
+      long measureStart = System.nanoTime() + WARMUP_MILLIS * 1_000_000;
+      long measureEnd   = measureStart + MEASURE_MILLIS * 1_000_000;
+
+      for (int t = 0; t < threads; t++) {
+          Thread worker = new Thread(() -> {
+              ThreadLocalRandom rnd = ThreadLocalRandom.current();
+              long count = 0;
+              boolean found = false;
+
+              while (true) {
+                  long now = System.nanoTime();
+                  if (now >= measureEnd)
+                      break;
+
+                  // Time is checked once per batch to keep nanoTime() out of the profile
+                  for (int i = 0; i < 256; i++) {
+                      int key = rnd.nextInt(keyRange);
+                      int op  = rnd.nextInt(100);
+
+                      if (op < lookupPercent)
+                          found ^= set.contains(key);
+                      else if ((op & 1) == 0)
+                          set.insert(key);
+                      else
+                          set.delete(key);
+                  }
+                  if (now >= measureStart)
+                      count += 256;
+              }
+
+              operations.add(count);
+              BenchmarkRunner.sink = found;
+              done.countDown();
+          });
+          worker.start();
+      }
+
+      done.await();
+      double opsPerSecond = operations.sum() / (MEASURE_MILLIS / 1000.0);
+      System.out.printf("%-28s %3d threads %14.0f ops/s%n", label, threads, opsPerSecond);
+  }
+}
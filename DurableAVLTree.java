@@ -0,0 +1,760 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file contains a LUC_AVLTree whose updates survive a crash: every
+ * insert, delete and removeAll is recorded in a write-ahead log on disk, the
+ * tree is checkpointed from time to time, and opening the directory again
+ * rebuilds the tree from the last checkpoint plus the log written after it.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+
+/**
+ *  Class 'DurableAVLTree'
+ *
+ *  The directory holds:
+ *    - 'checkpoint': the tree as of some log sequence number (LSN), as a
+ *      4-byte magic number, the 8-byte LSN and the tree in the format of
+ *      LUC_AVLTree.writeTo();
+ *    - log segments 'wal-<first LSN, 16 hex digits>.log', each a series of
+ *      frames: a 4-byte payload length, the 4-byte CRC32C of the payload,
+ *      and the payload, a run of records. A record is one opcode byte
+ *      (insert, delete, removeAll) followed, for insert and delete, by the
+ *      zigzag varint of the value. Records are numbered 1, 2, 3, ... across
+ *      segments; that number is the record's LSN.
+ *
+ *  Logging (group commit):
+ *
+ *   - An update is appended to an in-memory buffer and applied to the tree;
+ *     the calling thread does no I/O. A background writer thread swaps that
+ *     buffer for a second, empty one, and writes everything it took as one
+ *     frame with a single FileChannel.write(). While the writer is busy, the
+ *     caller keeps filling the other buffer, so under load each write (and
+ *     each fsync) carries every update made since the previous one.
+ *   - The caller only waits when both buffers are full, i.e. when updates
+ *     are produced faster than the disk takes them.
+ *   - 'syncMillis' decides when the writer forces the log to disk:
+ *       0    after every frame, so an update is on disk one frame later;
+ *       > 0  at most that many ms after a frame is written;
+ *       < 0  never on its own; only sync(), checkpoint() and close() force.
+ *     Independently of the setting, sync() returns once every update made
+ *     before it is on disk, for callers that need an explicit commit point.
+ *   - A crash of the process loses the updates still in the buffers (not yet
+ *     written); a crash of the machine also loses those not forced yet.
+ *     Either way the tree comes back as of some prefix of the updates.
+ *
+ *  Checkpoints:
+ *
+ *   - checkpoint() (run automatically every 'checkpointOps' updates when
+ *     that is > 0) has the writer start a new segment after the last
+ *     logged update, saves the tree to 'checkpoint.tmp', forces it, and
+ *     renames it over 'checkpoint' atomically. The segments before the new
+ *     one are then covered by the checkpoint and are deleted.
+ *   - It runs on the calling thread and takes O(n) time, during which no
+ *     update can be made; the log stays short and recovery fast in exchange.
+ *
+ *  Recovery:
+ *
+ *   - open() loads the checkpoint (if any) and replays the records with
+ *     larger LSNs from the segments in order. A frame that is cut short or
+ *     whose CRC does not match, with nothing intact after it, ends the last
+ *     segment (the write in progress when the process died); the file is
+ *     truncated there. Damage followed by an intact frame, damage in an
+ *     older segment, or a gap in the LSNs raises an IOException instead:
+ *     cutting the log there would drop updates that may have been synced.
+ *   - The last segment is forced before updates continue in a new one, so
+ *     the replayed tail, which a crashed process may have left only in the
+ *     OS cache, is on disk before any later segment is.
+ *
+ *  Only one thread may update or read the tree at a time, as with
+ *  LUC_AVLTree, and a directory may be open in one DurableAVLTree at a time.
+ *  If the writer fails, the update, sync() or checkpoint() that notices
+ *  throws its IOException, and so does every later one.
+ *
+ *  Public methods:
+ *   static DurableAVLTree open(Path dir)   - opens/recovers with the default settings
+ *   static DurableAVLTree open(Path dir, long syncMillis, long checkpointOps)
+ *   void    insert(int value)     - inserts 'value' and logs it
+ *   void    delete(int value)     - removes 'value' and logs it
+ *   void    removeAll()           - empties the tree and logs it
+ *   boolean contains(int value)   - returns true if 'value' is in the tree
+ *   OptionalInt floor(int value)  - greatest value <= 'value', if any
+ *   OptionalInt ceiling(int value) - least value >= 'value', if any
+ *   int     size()                - # of values in the tree
+ *   boolean checkEmpty()          - Returns boolean value if tree is empty or not
+ *   PrimitiveIterator.OfInt inorderIterator() - values in ascending order
+ *   long    lastSequence()        - LSN of the latest update
+ *   void    sync()                - waits until every update so far is on disk
+ *   void    checkpoint()          - saves the tree and drops the log it covers
+ *   void    close()               - syncs, stops the writer, closes the log
+ *
+ */
+
+final class DurableAVLTree implements Closeable {
+    static final long DEFAULT_SYNC_MILLIS    = 10;
+    static final long DEFAULT_CHECKPOINT_OPS = 10_000_000;
+
+    private static final int    CHECKPOINT_MAGIC = 0x434B5031;     // "CKP1"
+    private static final String CHECKPOINT       = "checkpoint";
+    private static final String CHECKPOINT_TMP   = "checkpoint.tmp";
+    private static final String SEGMENT_PREFIX   = "wal-";
+    private static final String SEGMENT_SUFFIX   = ".log";
+
+    private static final int  BUFFER_SIZE  = 1 << 20;   // per buffer, so also the largest frame payload
+    private static final int  FRAME_TARGET = 64 << 10;  // wake the writer once this much is buffered
+    private static final long LINGER_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+    private static final int  FRAME_HEADER = 8;         // payload length, CRC32C
+    private static final int  MAX_RECORD   = 6;         // opcode and a 5-byte varint
+    private static final byte INSERT = 1, DELETE = 2, REMOVE_ALL = 3;
+
+    private final Path directory;
+    private final LUC_AVLTree tree;
+    private final long syncNanos;           // < 0: never by time, 0: every frame
+    private final long checkpointOps;
+    private long opsSinceCheckpoint;
+
+    // Shared between the caller and the writer, guarded by 'lock'
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workReady = lock.newCondition();   // signalled to the writer
+    private final Condition spaceFree = lock.newCondition();   // the writer took the buffer
+    private final Condition progress  = lock.newCondition();   // written/durable/rolled moved
+    private ByteBuffer active = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer spare  = ByteBuffer.allocate(BUFFER_SIZE);
+    private long appendedLsn;               // LSN of the last record appended to 'active'
+    private long pendingSince;              // System.nanoTime() of the first record in 'active'
+    private long durableLsn;                // LSN of the last record forced to disk
+    private long rolledThrough;             // the current segment starts after this LSN
+    private boolean forceRequested, rollRequested, closing, closed;
+    private IOException failure;
+
+    // Owned by the writer thread
+    private FileChannel segment;
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER);
+    private final CRC32C crc = new CRC32C();
+    private final Thread writer;
+
+
+    private DurableAVLTree(Path directory, LUC_AVLTree tree, long lsn,
+                           long syncMillis, long checkpointOps) throws IOException {
+        this.directory     = directory;
+        this.tree          = tree;
+        this.syncNanos     = syncMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(syncMillis);
+        this.checkpointOps = checkpointOps;
+        this.appendedLsn   = lsn;
+        this.durableLsn    = lsn;
+        this.rolledThrough = lsn;
+        this.segment       = openSegment(lsn + 1);
+
+        writer = new Thread(this::writeLoop, "wal-writer " + directory.getFileName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+
+    /**
+     *  Method: open
+     *
+     *  Opens the tree stored in 'directory', creating the directory if
+     *  needed, and recovers it: the checkpoint is loaded and the log written
+     *  after it is replayed.
+     *
+     *  @param  directory     - where the checkpoint and log live
+     *  @param  syncMillis    - 0 to force the log after every frame, > 0 to
+     *                          force it at most that many ms after a write,
+     *                          < 0 to force it only on sync()/checkpoint()/close()
+     *  @param  checkpointOps - # of updates between automatic checkpoints;
+     *                          0 for none
+     *
+     *  @return the recovered tree, logging to a new segment
+     */
+
+    public static DurableAVLTree open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SYNC_MILLIS, DEFAULT_CHECKPOINT_OPS);
+    }
+
+    public static DurableAVLTree open(Path directory, long syncMillis, long checkpointOps) throws IOException {
+        if (checkpointOps < 0)
+            throw new IllegalArgumentException("checkpointOps must not be negative: " + checkpointOps);
+
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(CHECKPOINT_TMP));
+
+        LUC_AVLTree tree;
+        long lsn = 0;
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            try (FileChannel in = FileChannel.open(checkpoint, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(12);
+                if (!readFully(in, header) || (header.getInt(0) != CHECKPOINT_MAGIC))
+                    throw new IOException("not a checkpoint file: " + checkpoint);
+                lsn  = header.getLong(4);
+                tree = LUC_AVLTree.readFrom(in);
+            }
+        } else {
+            tree = new LUC_AVLTree();
+        }
+
+        List<Long> segments = listSegments(directory);
+        for (int i = 0; i < segments.size(); i++) {
+            long first = segments.get(i);
+            if (first > lsn + 1)
+                throw new IOException("log records " + (lsn + 1) + " to " + (first - 1) + " are missing");
+            lsn = replaySegment(tree, segmentPath(directory, first), first, lsn, i == segments.size() - 1);
+        }
+
+        return new DurableAVLTree(directory, tree, lsn, syncMillis, checkpointOps);
+    }
+
+
+    public void insert(int value) throws IOException {
+        append(INSERT, value);
+        tree.insert(value);
+        afterUpdate();
+    }
+
+    public void delete(int value) throws IOException {
+        append(DELETE, value);
+        tree.delete(value);
+        afterUpdate();
+    }
+
+    public void removeAll() throws IOException {
+        append(REMOVE_ALL, 0);
+        tree.removeAll();
+        afterUpdate();
+    }
+
+    public boolean contains(int value)                  { return tree.contains(value); }
+    public OptionalInt floor(int value)                 { return tree.floor(value); }
+    public OptionalInt ceiling(int value)               { return tree.ceiling(value); }
+    public int size()                                   { return tree.size(); }
+    public boolean checkEmpty()                         { return tree.checkEmpty(); }
+    public PrimitiveIterator.OfInt inorderIterator()    { return tree.inorderIterator(); }
+
+    public long lastSequence() {
+        lock.lock();
+        try {
+            return appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     *  Method: sync
+     *
+     *  Waits until every update made so far is forced to disk.
+     */
+
+    public void sync() throws IOException {
+        lock.lock();
+        try {
+            checkOpen();
+            long target = appendedLsn;
+            if (durableLsn >= target)
+                return;
+
+            forceRequested = true;
+            workReady.signal();
+            while (durableLsn < target) {
+                checkFailure();
+                progress.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     *  Method: checkpoint
+     *
+     *  Has the writer finish the current segment (forcing it) and start the
+     *  next one after the last update, then saves the tree to a new
+     *  checkpoint file and deletes the segments that it covers. The old
+     *  checkpoint is only replaced once the new one is complete on disk, so
+     *  a crash at any point leaves a checkpoint and log that recover the
+     *  tree.
+     */
+
+    public void checkpoint() throws IOException {
+        long lsn;
+        lock.lock();
+        try {
+            checkOpen();
+            lsn = appendedLsn;
+            rollRequested = true;
+            workReady.signal();
+            while (rolledThrough < lsn) {
+                checkFailure();
+                progress.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        Path tmp = directory.resolve(CHECKPOINT_TMP);
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(12).putInt(CHECKPOINT_MAGIC).putLong(lsn);
+            header.flip();
+            while (header.hasRemaining())
+                out.write(header);
+            tree.writeTo(out);
+            out.force(true);
+        }
+        Files.move(tmp, directory.resolve(CHECKPOINT),
+                   StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory(directory);
+
+        // Every older segment ends at or before 'lsn'; the writer's current
+        // one starts after it
+        for (long first : listSegments(directory))
+            if (first <= lsn)
+                Files.deleteIfExists(segmentPath(directory, first));
+        opsSinceCheckpoint = 0;
+    }
+
+
+    /**
+     *  Method: close
+     *
+     *  Writes and forces every update made so far, then stops the writer and
+     *  closes the log. The tree can no longer be updated afterwards; a second
+     *  call does nothing.
+     */
+
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            closed = closing = true;
+            workReady.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while closing the write-ahead log");
+        }
+
+        lock.lock();
+        try {
+            checkFailure();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    // Append one record for the writer, waiting only while both buffers are full
+    private void append(byte opcode, int value) throws IOException {
+        lock.lock();
+        try {
+            checkOpen();
+            while (active.remaining() < MAX_RECORD) {
+                workReady.signal();
+                spaceFree.awaitUninterruptibly();
+                checkFailure();
+            }
+
+            int before = active.position();
+            active.put(opcode);
+            if (opcode != REMOVE_ALL) {
+                int bits = (value << 1) ^ (value >> 31);
+                while ((bits & ~0x7F) != 0) {
+                    active.put((byte) ((bits & 0x7F) | 0x80));
+                    bits >>>= 7;
+                }
+                active.put((byte) bits);
+            }
+            appendedLsn++;
+
+            // The first record starts the writer's linger; a full frame's
+            // worth ends it early. Waking the writer for every record would
+            // cost a thread switch per update and a frame of a few bytes.
+            if (before == 0) {
+                pendingSince = System.nanoTime();
+                workReady.signal();
+            } else if ((before < FRAME_TARGET) && (active.position() >= FRAME_TARGET)) {
+                workReady.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void afterUpdate() throws IOException {
+        if ((checkpointOps > 0) && (++opsSinceCheckpoint >= checkpointOps))
+            checkpoint();
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed)
+            throw new IllegalStateException("tree is closed");
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null)
+            throw new IOException("write-ahead log failed", failure);
+    }
+
+
+    /**
+     *  Method: writeLoop
+     *
+     *  The writer thread. Each round it sleeps until there is something to
+     *  do: FRAME_TARGET bytes of records, older records that have lingered
+     *  for LINGER_NANOS, a sync or roll requested, a timed force due, or
+     *  close(). It then swaps the buffers and, without holding the lock,
+     *  writes what it took as one frame, forces the segment if the policy or
+     *  a request says so, and starts a new segment if asked. It then
+     *  publishes how far the log is durable and wakes whoever waits on it.
+     */
+
+    private void writeLoop() {
+        long lastForce = System.nanoTime();
+        boolean unforced = false;           // frames written but not forced yet
+
+        try {
+            while (true) {
+                ByteBuffer batch;
+                long upTo;
+                boolean force, roll, exit;
+
+                lock.lock();
+                try {
+                    while (!forceRequested && !rollRequested && !closing
+                           && (active.position() < FRAME_TARGET)) {
+                        long deadline;
+                        if (active.position() > 0)
+                            deadline = pendingSince + LINGER_NANOS;
+                        else if (unforced && (syncNanos > 0))
+                            deadline = lastForce + syncNanos;
+                        else {
+                            workReady.await();
+                            continue;
+                        }
+
+                        long wait = deadline - System.nanoTime();
+                        if (wait <= 0)
+                            break;
+                        workReady.awaitNanos(wait);
+                    }
+
+                    batch  = active;
+                    active = spare;
+                    spare  = batch;
+                    upTo   = appendedLsn;
+                    force  = forceRequested || rollRequested || closing || (syncNanos == 0);
+                    roll   = rollRequested;
+                    exit   = closing;
+                    forceRequested = rollRequested = false;
+                    spaceFree.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+
+                if (batch.position() > 0) {
+                    writeFrame(batch);
+                    unforced = true;
+                }
+                batch.clear();
+
+                long now = System.nanoTime();
+                if (unforced && (force || ((syncNanos > 0) && (now - lastForce >= syncNanos)))) {
+                    segment.force(false);
+                    unforced  = false;
+                    lastForce = now;
+                }
+                if (roll) {
+                    segment.close();
+                    segment = openSegment(upTo + 1);
+                }
+
+                lock.lock();
+                try {
+                    if (!unforced)
+                        durableLsn = upTo;
+                    if (roll)
+                        rolledThrough = upTo;
+                    progress.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+
+                if (exit) {
+                    segment.close();
+                    return;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            lock.lock();
+            try {
+                failure = e instanceof IOException ? (IOException) e
+                                                   : new InterruptedIOException("write-ahead log writer interrupted");
+                progress.signalAll();
+                spaceFree.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void writeFrame(ByteBuffer batch) throws IOException {
+        batch.flip();
+        crc.reset();
+        crc.update(batch.array(), 0, batch.limit());
+
+        frameHeader.clear();
+        frameHeader.putInt(batch.limit()).putInt((int) crc.getValue());
+        frameHeader.flip();
+
+        ByteBuffer[] frame = { frameHeader, batch };
+        while (batch.hasRemaining())
+            segment.write(frame);
+    }
+
+    // Open (creating if needed) the segment whose first record is 'first'
+    private FileChannel openSegment(long first) throws IOException {
+        Path path = segmentPath(directory, first);
+        boolean created = !Files.exists(path);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                               StandardOpenOption.APPEND);
+        if (created)
+            forceDirectory(directory);
+        return channel;
+    }
+
+
+    /**
+     *  Method: replaySegment
+     *
+     *  Applies to 'tree' the records of one segment whose LSN is above
+     *  'lsn'. A damaged frame ends the segment. It is taken for the torn
+     *  write of a crash, and the file is truncated before it, only if it is
+     *  in the last segment and nothing intact follows it (see tornTail());
+     *  otherwise it is corruption, and an IOException. The last segment is
+     *  then forced: after a crash of the process its tail may still be only
+     *  in the OS cache, and it must be on disk before a newer segment is.
+     *
+     *  @param  tree  - tree to apply the records to
+     *  @param  path  - segment file
+     *  @param  first - LSN of the segment's first record
+     *  @param  lsn   - LSN the tree is already at
+     *  @param  last  - whether this is the newest segment
+     *
+     *  @return the LSN the tree is at afterwards
+     */
+
+    private static long replaySegment(LUC_AVLTree tree, Path path, long first, long lsn,
+                                      boolean last) throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header  = ByteBuffer.allocate(FRAME_HEADER);
+            ByteBuffer payload = ByteBuffer.allocate(BUFFER_SIZE);
+            CRC32C crc = new CRC32C();
+            long recordLsn = first - 1;
+            long valid = 0;                 // end of the last good frame
+            int length = 0;                 // declared payload length of the frame after it
+
+            while (true) {
+                header.clear();
+                if (!readFully(in, header))
+                    break;
+
+                length = header.getInt(0);
+                if ((length <= 0) || (length > BUFFER_SIZE))
+                    break;
+                payload.clear().limit(length);
+                if (!readFully(in, payload))
+                    break;
+                crc.reset();
+                crc.update(payload.array(), 0, length);
+                if ((int) crc.getValue() != header.getInt(4))
+                    break;
+
+                payload.flip();
+                while (payload.hasRemaining()) {
+                    byte opcode = payload.get();
+                    if ((opcode != INSERT) && (opcode != DELETE) && (opcode != REMOVE_ALL))
+                        throw new IOException("unknown log record " + opcode + " in " + path);
+
+                    int value = 0;
+                    if (opcode != REMOVE_ALL) {
+                        int bits = 0;
+                        for (int shift = 0; ; shift += 7) {
+                            if (!payload.hasRemaining() || (shift > 28))
+                                throw new IOException("corrupt log record in " + path);
+                            byte b = payload.get();
+                            bits |= (b & 0x7F) << shift;
+                            if (b >= 0)
+                                break;
+                        }
+                        value = (bits >>> 1) ^ -(bits & 1);
+                    }
+
+                    if (++recordLsn <= lsn)
+                        continue;
+                    switch (opcode) {
+                        case INSERT:  tree.insert(value);  break;
+                        case DELETE:  tree.delete(value);  break;
+                        default:      tree.removeAll();    break;
+                    }
+                    lsn = recordLsn;
+                }
+                valid = in.position();
+            }
+
+            if (valid < in.size()) {
+                if (!last || !tornTail(in, valid, length))
+                    throw new IOException("corrupt log segment " + path + " at offset " + valid);
+                in.truncate(valid);
+            }
+            if (last)
+                in.force(true);
+            return lsn;
+        }
+    }
+
+
+    /**
+     *  Method: tornTail
+     *
+     *  Decides whether the damaged frame at 'start', in the newest segment,
+     *  is the unfinished write of a crash, and so may be cut off. That is
+     *  the case when the damage runs to the end of the file:
+     *    - the frame is cut short by the end of the file;
+     *    - its length is sane and nothing, or no intact frame, follows it;
+     *    - its length is garbage (so its end is unknown) and everything from
+     *      it on is zeros, as a file extended by a crash often reads back, or
+     *      fits in one frame and holds no intact frame at any offset.
+     *  Anything else means frames were written after it, and cutting it off
+     *  would drop them, though they may have been forced to disk.
+     *
+     *  @param  in     - the segment
+     *  @param  start  - offset of the damaged frame
+     *  @param  length - its declared payload length (meaningless if the
+     *                   header itself is cut short)
+     *
+     *  @return true if the segment may be truncated at 'start'
+     */
+
+    private static boolean tornTail(FileChannel in, long start, int length) throws IOException {
+        long size = in.size();
+        if (size - start < FRAME_HEADER)
+            return true;
+
+        if ((length > 0) && (length <= BUFFER_SIZE)) {
+            long end = start + FRAME_HEADER + length;
+            return (end >= size) || !intactFrameAt(in, end, size);
+        }
+
+        if (allZero(in, start, size))
+            return true;
+        if (size - start > FRAME_HEADER + BUFFER_SIZE)
+            return false;
+        for (long offset = start + 1; offset + FRAME_HEADER < size; offset++)
+            if (intactFrameAt(in, offset, size))
+                return false;
+        return true;
+    }
+
+    // Whether a complete frame with a matching CRC starts at 'offset'
+    private static boolean intactFrameAt(FileChannel in, long offset, long size) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER);
+        if (!readFully(in.position(offset), header))
+            return false;
+
+        int length = header.getInt(0);
+        if ((length <= 0) || (length > BUFFER_SIZE) || (offset + FRAME_HEADER + length > size))
+            return false;
+
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(in, payload);
+        CRC32C crc = new CRC32C();
+        crc.update(payload.array(), 0, length);
+        return (int) crc.getValue() == header.getInt(4);
+    }
+
+    private static boolean allZero(FileChannel in, long from, long to) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(64 << 10);
+        in.position(from);
+        for (long left = to - from; left > 0; ) {
+            chunk.clear().limit((int) Math.min(chunk.capacity(), left));
+            if (!readFully(in, chunk))
+                return false;
+            for (int i = 0; i < chunk.limit(); i++)
+                if (chunk.get(i) != 0)
+                    return false;
+            left -= chunk.limit();
+        }
+        return true;
+    }
+
+
+    private static List<Long> listSegments(Path directory) throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String hex  = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+                try {
+                    segments.add(Long.parseUnsignedLong(hex, 16));
+                } catch (NumberFormatException e) {
+                    // not a segment of ours
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static Path segmentPath(Path directory, long first) {
+        return directory.resolve(String.format("%s%016x%s", SEGMENT_PREFIX, first, SEGMENT_SUFFIX));
+    }
+
+    // Read until 'buffer' is full; false if the channel ends first
+    private static boolean readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            if (in.read(buffer) < 0)
+                return false;
+        return true;
+    }
+
+    // Make a file creation or rename in 'directory' durable. Not every
+    // platform can open a directory as a channel; there the rename is as
+    // durable as the platform makes it.
+    private static void forceDirectory(Path directory) {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // best effort
+        }
+    }
+}
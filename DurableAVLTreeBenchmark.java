@@ -0,0 +1,92 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file is a throughput benchmark of DurableAVLTree: updates per
+ * second under each fsync policy, against the same updates on a plain
+ * LUC_AVLTree, and the time recovery takes to replay the log.
+ *
+ * The numbers depend on the disk behind 'directory' (default: a temporary
+ * directory); point it at the device to be measured.
+ *
+ * Usage: java DurableAVLTreeBenchmark [operations] [keyRange] [directory]
+ *
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+public class DurableAVLTreeBenchmark {
+
+  private static final int ROUNDS = 3;
+
+  public static void main(String[] args) throws IOException {
+      int operations = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+      int keyRange   = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+      Path parent    = args.length > 2 ? Paths.get(args[2]) : null;
+
+      // Even entries insert, odd entries delete, so the tree stays around keyRange / 2 values
+      int[] keys = ThreadLocalRandom.current().ints(operations, 0, keyRange).toArray();
+
+      System.out.println("\n" + operations + " updates (half inserts, half deletes), "
+                         + keyRange + " keys");
+
+      for (int round = 0; round < ROUNDS; round++) {
+          plain(keys);
+          for (long syncMillis : new long[] { -1, 10, 0 })
+              durable(keys, syncMillis, parent);
+      }
+  }
+
+  private static void plain(int[] keys) {
+      LUC_AVLTree tree = new LUC_AVLTree();
+      long start = System.nanoTime();
+      for (int i = 0; i < keys.length; i++) {
+          if ((i & 1) == 0)
+              tree.insert(keys[i]);
+          else
+              tree.delete(keys[i]);
+      }
+      report("LUC_AVLTree (no log)", keys.length, System.nanoTime() - start);
+  }
+
+  private static void durable(int[] keys, long syncMillis, Path parent) throws IOException {
+      Path directory = parent == null ? Files.createTempDirectory("wal")
+                                      : Files.createTempDirectory(parent, "wal");
+      try {
+          // No automatic checkpoint, so recovery below replays the whole log
+          long start = System.nanoTime();
+          try (DurableAVLTree tree = DurableAVLTree.open(directory, syncMillis, 0)) {
+              for (int i = 0; i < keys.length; i++) {
+                  if ((i & 1) == 0)
+                      tree.insert(keys[i]);
+                  else
+                      tree.delete(keys[i]);
+              }
+              tree.sync();
+          }
+          String policy = syncMillis < 0 ? "fsync on close" : syncMillis == 0 ? "fsync every frame"
+                                                             : "fsync every " + syncMillis + " ms";
+          report("DurableAVLTree, " + policy, keys.length, System.nanoTime() - start);
+
+          start = System.nanoTime();
+          try (DurableAVLTree tree = DurableAVLTree.open(directory, syncMillis, 0)) {
+              BenchmarkRunner.sink = tree.size();
+          }
+          report("  recovery (replay)", keys.length, System.nanoTime() - start);
+      } finally {
+          try (Stream<Path> files = Files.list(directory)) {
+              for (Path file : (Iterable<Path>) files::iterator)
+                  Files.delete(file);
+          }
+          Files.delete(directory);
+      }
+  }
+
+  private static void report(String label, int operations, long nanos) {
+      System.out.printf("%-36s %10.0f ms %14.0f ops/s%n", label, nanos / 1e6, operations / (nanos / 1e9));
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file contains the read-only snapshot of an AVL tree returned by
+ * LUC_AVLTree.freeze(): the same values laid out in one int[] in Eytzinger
+ * (breadth-first) order, for lookup-only use.
+ *
+ */
+
+import java.util.OptionalInt;
+import java.util.PrimitiveIterator;
+
+
+/**
+ *  Class 'FrozenAVLTree'
+ *
+ *  The values are stored as a perfectly balanced implicit search tree:
+ *  keys[1] is the root and the children of keys[i] are keys[2i] and
+ *  keys[2i + 1]. There are no Node objects and no references to follow, so
+ *  a lookup touches only the array, the first levels of the tree share a
+ *  few cache lines that stay cached between lookups, and the whole
+ *  structure takes 8 bytes per value (key and rank) instead of a ~40-byte
+ *  Node scattered somewhere on the heap.
+ *
+ *  Every search is the same branchless descent (see descend()): the
+ *  comparison at each level is turned into the next index arithmetically,
+ *  so there are no branch mispredictions, and the cache line four levels
+ *  below is requested ahead of time. The turns taken are left in the bits
+ *  of the final index, from which both neighbours of the searched value
+ *  are recovered with a shift.
+ *
+ *  Beyond the L3 cache, lookups also miss the TLB; running with
+ *  -XX:+UseTransparentHugePages keeps the array on 2 MB pages.
+ *
+ *  ranks[i] is the # of values smaller than keys[i], so rank() costs one
+ *  descent too.
+ *
+ *  The snapshot is immutable and does not share anything with the tree it
+ *  was taken from, so it can be read by any number of threads.
+ *
+ *  Public methods:
+ *   int     size()                - # of values
+ *   boolean contains(int value)   - true if 'value' is in the snapshot
+ *   OptionalInt floor(int value)   - greatest value <= 'value', if any
+ *   OptionalInt ceiling(int value) - least value >= 'value', if any
+ *   OptionalInt lower(int value)   - greatest value <  'value', if any
+ *   OptionalInt higher(int value)  - least value >  'value', if any
+ *   int     rank(int value)       - # of values smaller than 'value'
+ *   int     countInRange(int lo, int hi) - # of values v with lo <= v <= hi
+ *
+ */
+
+final class FrozenAVLTree {
+    // Largest size for which the descent's index (up to 2 * size + 1) fits in an int
+    static final int MAX_SIZE = (1 << 30) - 1;
+
+    // The descendants of keys[i] four levels down are the 16 consecutive
+    // keys from keys[16i], i.e. one or two cache lines
+    private static final int LOOK_AHEAD = 16;
+
+    private static int lookAheadSink;
+
+    private final int size;
+    private final int[] keys;       // keys[1..size] in Eytzinger order; keys[0] unused
+    private final int[] ranks;      // ranks[i] = # of values smaller than keys[i]
+
+
+    /**
+     *  Constructor: FrozenAVLTree
+     *
+     *  Lays out 'size' values, delivered in ascending order, in O(n): the
+     *  slots of the implicit tree are visited in order (see nextInOrder())
+     *  and each takes the next value.
+     *
+     *  @param  sortedValues - the values, strictly ascending
+     *  @param  size         - # of values 'sortedValues' delivers
+     */
+
+    FrozenAVLTree(PrimitiveIterator.OfInt sortedValues, int size) {
+        if (size > MAX_SIZE)
+            throw new IllegalArgumentException("too many values to freeze: " + size);
+
+        this.size  = size;
+        this.keys  = new int[size + 1];
+        this.ranks = new int[size + 1];
+
+        int slot = firstInOrder();
+        for (int rank = 0; rank < size; rank++) {
+            keys[slot]  = sortedValues.nextInt();
+            ranks[slot] = rank;
+            slot = nextInOrder(slot);
+        }
+    }
+
+    public int size()                       { return size; }
+
+    public boolean contains(int value) {
+        int slot = firstAtLeast(descend(value, false));
+        return (slot != 0) && (keys[slot] == value);
+    }
+
+    public OptionalInt floor(int value)     { return valueAt(lastBelow(descend(value, true))); }
+    public OptionalInt ceiling(int value)   { return valueAt(firstAtLeast(descend(value, false))); }
+    public OptionalInt lower(int value)     { return valueAt(lastBelow(descend(value, false))); }
+    public OptionalInt higher(int value)    { return valueAt(firstAtLeast(descend(value, true))); }
+
+    public int rank(int value) {
+        int slot = firstAtLeast(descend(value, false));
+        return slot == 0 ? size : ranks[slot];
+    }
+
+    public int countInRange(int lo, int hi) {
+        if (lo > hi)
+            return 0;
+
+        int slot = firstAtLeast(descend(hi, true));
+        int upTo = slot == 0 ? size : ranks[slot];
+        return upTo - rank(lo);
+    }
+
+    private OptionalInt valueAt(int slot) {
+        return slot == 0 ? OptionalInt.empty() : OptionalInt.of(keys[slot]);
+    }
+
+
+    /**
+     *  Method: descend
+     *
+     *  Walks from the root to below a leaf, going right past every key
+     *  smaller than 'value' (or, if 'inclusive', not larger than it) and left
+     *  otherwise. The step is computed from the sign of the 64-bit
+     *  difference rather than branched on.
+     *
+     *  Java has no prefetch instruction, so at each level the descent also
+     *  loads the first of the node's 16 descendants four levels down. That
+     *  load does not depend on the comparisons in between, so it is in
+     *  flight while they run and the line is cached by the time the
+     *  descent gets there. Without it every level waits for a full memory
+     *  access in turn.
+     *
+     *  The returned index is one past the bottom of the tree; read in
+     *  binary, after the leading 1, it holds one bit per level: 1 for a
+     *  right turn, 0 for a left one.
+     *
+     *  @param  value     - value searched for
+     *  @param  inclusive - whether keys equal to 'value' are passed on the right
+     *
+     *  @return the index the descent ended at (> size)
+     */
+
+    private int descend(int value, boolean inclusive) {
+        int[] keys = this.keys;
+        int n = size;
+        long bound = inclusive ? (long) value + 1 : value;
+
+        // LOOK_AHEAD * i overflows for i >= 2^27, so compare i instead
+        int aheadLimit = n / LOOK_AHEAD;
+
+        int i = 1, ahead = 0;
+        while (i <= n) {
+            if (i <= aheadLimit)
+                ahead ^= keys[LOOK_AHEAD * i];
+            i = 2 * i + (int) (((long) keys[i] - bound) >>> 63);
+        }
+
+        // Consume the look-ahead loads so the JIT keeps them; the store
+        // almost never runs, so threads do not contend on the field
+        if (ahead == bound)
+            lookAheadSink = ahead;
+        return i;
+    }
+
+    // The last key the descent passed on the left, i.e. the first one not
+    // below the bound: drop the trailing right turns and the left turn
+    // before them. 0 if the descent never turned left.
+    private static int firstAtLeast(int end) {
+        return end >>> (Integer.numberOfTrailingZeros(~end) + 1);
+    }
+
+    // The last key the descent passed on the right, i.e. the last one below
+    // the bound. 0 if the descent never turned right.
+    private static int lastBelow(int end) {
+        return end >>> (Integer.numberOfTrailingZeros(end) + 1);
+    }
+
+    // Slot of the smallest value: the leftmost node of the implicit tree
+    private int firstInOrder() {
+        int slot = 1;
+        while (2 * slot <= size)
+            slot *= 2;
+        return slot;
+    }
+
+    // Slot following 'slot' in order: the leftmost node of its right
+    // subtree if it has one, else the closest ancestor it is on the left of
+    private int nextInOrder(int slot) {
+        if (2 * slot + 1 <= size) {
+            slot = 2 * slot + 1;
+            while (2 * slot <= size)
+                slot *= 2;
+            return slot;
+        }
+        return firstAtLeast(slot);
+    }
+}
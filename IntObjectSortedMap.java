@@ -0,0 +1,196 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file contains a sorted map from primitive int keys to objects,
+ * built on the AVL tree in 'AVLTree.java', for use where a TreeMap<Integer, V>
+ * would otherwise box every key.
+ *
+ */
+
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.function.IntPredicate;
+
+
+/**
+ *  Class 'IntObjectSortedMap'
+ *
+ *  Each entry is a single tree node: a Node subclass (EntryNode) carrying the
+ *  mapped value next to the int key, so there is no Integer key and no
+ *  separate Map.Entry object per mapping. The tree is a LUC_AVLTree whose
+ *  node hooks (newNode / moveValue) are overridden to create EntryNodes and to
+ *  carry the mapped value along when a node with two children is deleted.
+ *
+ *  Null values are allowed; as with TreeMap, get() then cannot tell a
+ *  mapping to null from a missing key, and containsKey() should be used.
+ *
+ *  equals() and hashCode() follow the contract of java.util.Map, with the
+ *  int key standing in for the Integer one. Maps whose key sets differ are
+ *  almost always told apart in O(1) by the tree's content hash, which covers
+ *  the keys only; the mapped values are compared entry by entry.
+ *
+ *  Public methods:
+ *   V       put(int key, V value)   - maps 'key' to 'value'; returns the previous value or null
+ *   V       get(int key)            - returns the value mapped to 'key', or null
+ *   V       getOrDefault(int key, V defaultValue)
+ *   boolean containsKey(int key)    - returns true if 'key' is mapped
+ *   V       remove(int key)         - removes 'key'; returns its value or null
+ *   void    removeAll(int[] keys)   - removes every key of the batch
+ *   boolean removeIf(IntPredicate filter) - removes every mapping whose key matches 'filter'
+ *   int     size()                  - returns the number of mappings
+ *   boolean isEmpty()               - returns true if the map is empty
+ *   void    clear()                 - removes every mapping
+ *   int     firstKey() / lastKey()  - smallest / largest key
+ *   PrimitiveIterator.OfInt keyIterator() - keys in ascending order
+ *   void    forEach(IntObjectConsumer<? super V> action) - visits the entries in key order
+ *
+ */
+
+class IntObjectSortedMap<V> {
+
+    // Receives one mapping; the unboxed counterpart of a BiConsumer<Integer, V>
+    @FunctionalInterface
+    interface IntObjectConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    // A tree node that also holds the value mapped to its key
+    private static final class EntryNode<V> extends Node {
+        V mapped;
+
+        EntryNode(int key, V mapped) {
+            super(key);
+            this.mapped = mapped;
+        }
+    }
+
+    // The tree, with its node hooks creating and moving EntryNodes. newNode()
+    // is only called by insert(), which put() calls right after setting
+    // 'pending' to the value to map.
+    private static final class Entries<V> extends LUC_AVLTree {
+        V pending;
+
+        @Override
+        Node newNode(int key) {
+            return new EntryNode<>(key, pending);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void moveValue(Node from, Node to) {
+            super.moveValue(from, to);
+            ((EntryNode<V>) to).mapped = ((EntryNode<V>) from).mapped;
+        }
+    }
+
+    private final Entries<V> entries = new Entries<>();
+
+    public V put(int key, V value) {
+        EntryNode<V> node = find(key);
+        if (node != null) {
+            V previous = node.mapped;
+            node.mapped = value;
+            return previous;
+        }
+
+        entries.pending = value;
+        entries.insert(key);
+        entries.pending = null;
+        return null;
+    }
+
+    public V get(int key) {
+        EntryNode<V> node = find(key);
+        return node == null ? null : node.mapped;
+    }
+
+    public V getOrDefault(int key, V defaultValue) {
+        EntryNode<V> node = find(key);
+        return node == null ? defaultValue : node.mapped;
+    }
+
+    public V remove(int key) {
+        EntryNode<V> node = find(key);
+        if (node == null)
+            return null;
+
+        V previous = node.mapped;
+        entries.delete(key);
+        return previous;
+    }
+
+    public void removeAll(int[] keys)       { entries.deleteAll(keys); }
+    public boolean removeIf(IntPredicate filter) { return entries.removeIf(filter); }
+    public boolean containsKey(int key)     { return entries.contains(key); }
+    public int size()                       { return entries.size(); }
+    public boolean isEmpty()                { return entries.checkEmpty(); }
+    public void clear()                     { entries.removeAll(); }
+    public PrimitiveIterator.OfInt keyIterator() { return entries.inorderIterator(); }
+
+    public int firstKey() {
+        if (isEmpty())
+            throw new NoSuchElementException();
+        return entries.select(0);
+    }
+
+    public int lastKey() {
+        if (isEmpty())
+            throw new NoSuchElementException();
+        return entries.select(entries.size() - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(IntObjectConsumer<? super V> action) {
+        LUC_AVLTree.RangeIterator it = entries.nodeIterator(false);
+        while (it.hasNext()) {
+            EntryNode<V> node = (EntryNode<V>) it.nextNode();
+            action.accept(node.value, node.mapped);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private EntryNode<V> find(int key) {
+        return (EntryNode<V>) entries.findNode(key);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this)
+            return true;
+        if (!(other instanceof IntObjectSortedMap))
+            return false;
+
+        IntObjectSortedMap<?> that = (IntObjectSortedMap<?>) other;
+        if ((size() != that.size()) || (entries.contentHash() != that.entries.contentHash()))
+            return false;
+
+        LUC_AVLTree.RangeIterator mine = entries.nodeIterator(false);
+        LUC_AVLTree.RangeIterator theirs = that.entries.nodeIterator(false);
+        while (mine.hasNext()) {
+            EntryNode<?> a = (EntryNode<?>) mine.nextNode();
+            EntryNode<?> b = (EntryNode<?>) theirs.nextNode();
+            if ((a.value != b.value) || !Objects.equals(a.mapped, b.mapped))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int[] hash = { 0 };
+        forEach((key, value) -> hash[0] += Integer.hashCode(key) ^ Objects.hashCode(value));
+        return hash[0];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((key, value) -> {
+            if (sb.length() > 1)
+                sb.append(", ");
+            sb.append(key).append('=').append(value);
+        });
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file contains a sorted set of primitive ints built on the AVL
+ * tree in 'AVLTree.java', for use where a TreeSet<Integer> would otherwise
+ * box every element.
+ *
+ */
+
+import java.util.NoSuchElementException;
+import java.util.OptionalInt;
+import java.util.PrimitiveIterator;
+import java.util.function.IntPredicate;
+
+
+/**
+ *  Class 'IntSortedSet'
+ *
+ *  Every element is stored as the int value of one LUC_AVLTree node, so the
+ *  set holds no Integer objects and none of its methods box or unbox. The
+ *  navigation methods return OptionalInt instead of a nullable Integer.
+ *
+ *  equals() and hashCode() follow the contract of java.util.Set: two sets
+ *  are equal if they hold the same values, and the hash code is the sum of
+ *  the values. An IntSortedSet is therefore equal to another IntSortedSet
+ *  but never to a Set<Integer>. Unequal sets are almost always told apart in
+ *  O(1) by their content hashes (see LUC_AVLTree.contentEquals).
+ *
+ *  Public methods:
+ *   boolean add(int value)        - adds 'value'; returns false if it was already present
+ *   boolean remove(int value)     - removes 'value'; returns false if it was absent
+ *   void    addAll(int[] values)  - adds every value of the batch
+ *   void    removeAll(int[] values) - removes every value of the batch
+ *   boolean removeIf(IntPredicate filter) - removes every value matching 'filter'
+ *   boolean contains(int value)   - returns true if 'value' is in the set
+ *   int     size()                - returns the number of values in the set
+ *   boolean isEmpty()             - returns true if the set holds no values
+ *   void    clear()               - removes every value
+ *   int     first() / last()      - smallest / largest value
+ *   OptionalInt floor / ceiling / lower / higher (int value) - nearest values
+ *   PrimitiveIterator.OfInt iterator()            - values in ascending order
+ *   PrimitiveIterator.OfInt descendingIterator()  - values in descending order
+ *   PrimitiveIterator.OfInt rangeIterator(int lo, int hi) - values in [lo, hi)
+ *   int[]   toArray()             - values in ascending order
+ *   static IntSortedSet union / intersection / difference / symmetricDifference
+ *                                 (IntSortedSet a, IntSortedSet b) - new set, inputs unchanged
+ *
+ */
+
+class IntSortedSet {
+    private final LUC_AVLTree tree;
+
+    public IntSortedSet()                  { this(new LUC_AVLTree()); }
+    public IntSortedSet(int[] values)      { this(new LUC_AVLTree(values)); }
+    private IntSortedSet(LUC_AVLTree tree) { this.tree = tree; }
+
+    public boolean add(int value) {
+        int before = tree.size();
+        tree.insert(value);
+        return tree.size() != before;
+    }
+
+    public boolean remove(int value) {
+        int before = tree.size();
+        tree.delete(value);
+        return tree.size() != before;
+    }
+
+    public void addAll(int[] values)        { tree.insertAll(values); }
+    public void removeAll(int[] values)     { tree.deleteAll(values); }
+    public boolean removeIf(IntPredicate filter) { return tree.removeIf(filter); }
+    public boolean contains(int value)      { return tree.contains(value); }
+    public int size()                       { return tree.size(); }
+    public boolean isEmpty()                { return tree.checkEmpty(); }
+    public void clear()                     { tree.removeAll(); }
+
+    public int first() {
+        if (isEmpty())
+            throw new NoSuchElementException();
+        return tree.select(0);
+    }
+
+    public int last() {
+        if (isEmpty())
+            throw new NoSuchElementException();
+        return tree.select(tree.size() - 1);
+    }
+
+    public OptionalInt floor(int value)     { return tree.floor(value); }
+    public OptionalInt ceiling(int value)   { return tree.ceiling(value); }
+    public OptionalInt lower(int value)     { return tree.lower(value); }
+    public OptionalInt higher(int value)    { return tree.higher(value); }
+
+    public PrimitiveIterator.OfInt iterator()                   { return tree.inorderIterator(); }
+    public PrimitiveIterator.OfInt descendingIterator()         { return tree.descendingIterator(); }
+    public PrimitiveIterator.OfInt rangeIterator(int lo, int hi) { return tree.rangeIterator(lo, hi); }
+
+    public int[] toArray() {
+        int[] values = new int[size()];
+        PrimitiveIterator.OfInt it = iterator();
+        for (int i = 0; i < values.length; i++)
+            values[i] = it.nextInt();
+        return values;
+    }
+
+    public static IntSortedSet union(IntSortedSet a, IntSortedSet b) {
+        return new IntSortedSet(LUC_AVLTree.union(a.tree, b.tree));
+    }
+
+    public static IntSortedSet intersection(IntSortedSet a, IntSortedSet b) {
+        return new IntSortedSet(LUC_AVLTree.intersection(a.tree, b.tree));
+    }
+
+    public static IntSortedSet difference(IntSortedSet a, IntSortedSet b) {
+        return new IntSortedSet(LUC_AVLTree.difference(a.tree, b.tree));
+    }
+
+    public static IntSortedSet symmetricDifference(IntSortedSet a, IntSortedSet b) {
+        return new IntSortedSet(LUC_AVLTree.symmetricDifference(a.tree, b.tree));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this)
+            return true;
+        if (!(other instanceof IntSortedSet))
+            return false;
+
+        return tree.contentEquals(((IntSortedSet) other).tree);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (PrimitiveIterator.OfInt it = iterator(); it.hasNext(); )
+            hash += it.nextInt();
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (PrimitiveIterator.OfInt it = iterator(); it.hasNext(); ) {
+            sb.append(it.nextInt());
+            if (it.hasNext())
+                sb.append(", ");
+        }
+        return sb.append(']').toString();
+    }
+}
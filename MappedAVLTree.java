@@ -0,0 +1,386 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file is a persistent, file-backed variant of the AVL tree in
+ * 'AVLTree.java'. The nodes live off-heap in a memory-mapped file, so a tree
+ * written by one process can be reopened by the next one without re-inserting
+ * its values.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ *  Class 'MappedAVLTree'
+ *
+ *  File layout (all ints little-endian):
+ *
+ *    header (32 bytes):
+ *      MAGIC, VERSION, root, nodeCount, freeList, nextUnused, 2 reserved ints
+ *
+ *    node records (16 bytes each), record i at offset HEADER_SIZE + 16 * i:
+ *      value, height, left record, right record
+ *
+ *  Child links are record numbers rather than Java references, with NIL (-1)
+ *  for "no child". Records freed by delete() are chained through their left
+ *  field into a free-list and reused before the file grows. When the mapping
+ *  is full, the file is grown by doubling and remapped. A single mapping is
+ *  limited to 2GB, i.e. roughly 134 million nodes.
+ *
+ *  Opening an existing file only maps it and reads the header; pages are
+ *  faulted in lazily as the tree is searched. Insertion, deletion and the
+ *  four rotations follow LUC_AVLTree exactly.
+ *
+ *  Changes reach the file through the page cache. Call flush() (or close())
+ *  to force them to the storage device. A crash in the middle of an update
+ *  can leave the file inconsistent; this class does not journal its writes.
+ *
+ *  Public methods:
+ *   static MappedAVLTree open(Path file) - opens the tree in 'file', creating it if needed
+ *   void    removeAll()         - Remove all nodes of the tree (empties tree)
+ *   boolean checkEmpty()        - Returns boolean value if tree is empty or not
+ *   void    insert(int value)   - inserts 'value' into the tree
+ *   void    delete(int value)   - removes 'value' from the tree
+ *   String  preorderTraversal() - returns a preorder traversal of tree in a String
+ *   int     size()              - returns the number of values in the tree
+ *   void    flush()             - forces the mapped file to storage
+ *   void    close()             - flushes and releases the file
+ *
+ */
+
+class MappedAVLTree implements Closeable {
+    private static final int MAGIC   = 0x41564C54;     // "AVLT"
+    private static final int VERSION = 1;
+
+    private static final int NIL = -1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 16;
+    private static final int INITIAL_RECORDS = 1024;
+    private static final long MAX_MAPPING = Integer.MAX_VALUE;
+
+    // Header field offsets
+    private static final int H_MAGIC = 0, H_VERSION = 4, H_ROOT = 8, H_COUNT = 12,
+                             H_FREE = 16, H_UNUSED = 20;
+
+    // Record field offsets
+    private static final int VALUE = 0, HEIGHT = 4, LEFT = 8, RIGHT = 12;
+
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;           // # of records the current mapping holds
+
+    private int rootNode;           // in-memory copies of the header fields
+    private int nodeCount;
+    private int freeList;
+    private int nextUnused;
+
+    private MappedAVLTree(FileChannel channel) throws IOException {
+        this.channel = channel;
+
+        if (channel.size() < HEADER_SIZE) {
+            map(INITIAL_RECORDS);
+            buffer.putInt(H_MAGIC, MAGIC);
+            buffer.putInt(H_VERSION, VERSION);
+            removeAll();
+        } else {
+            map((int) ((channel.size() - HEADER_SIZE) / RECORD_SIZE));
+            if (buffer.getInt(H_MAGIC) != MAGIC || buffer.getInt(H_VERSION) != VERSION)
+                throw new IOException("Not a MappedAVLTree file (bad magic or version)");
+
+            rootNode   = buffer.getInt(H_ROOT);
+            nodeCount  = buffer.getInt(H_COUNT);
+            freeList   = buffer.getInt(H_FREE);
+            nextUnused = buffer.getInt(H_UNUSED);
+
+            // A file cut short (or copied incompletely) still has a valid
+            // magic number; make sure the header only refers to records that
+            // exist, rather than fail later inside insert() or delete()
+            if ((nextUnused < 0) || (nextUnused > capacity)
+                    || (nodeCount < 0) || (nodeCount > nextUnused)
+                    || !isRecordOrNil(rootNode) || !isRecordOrNil(freeList)
+                    || ((rootNode == NIL) != (nodeCount == 0)))
+                throw new IOException(String.format("Corrupt MappedAVLTree header: root %d, %d nodes, free list %d,"
+                                                    + " %d records used, %d records in the file",
+                                                    rootNode, nodeCount, freeList, nextUnused, capacity));
+        }
+    }
+
+    private boolean isRecordOrNil(int node) {
+        return (node == NIL) || ((node >= 0) && (node < nextUnused));
+    }
+
+    public static MappedAVLTree open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                               StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new MappedAVLTree(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public void removeAll() {
+        rootNode   = NIL;
+        nodeCount  = 0;
+        freeList   = NIL;
+        nextUnused = 0;
+        writeHeader();
+    }
+
+    public boolean checkEmpty()       { return rootNode == NIL; }
+    public int size()                 { return nodeCount; }
+
+    public void insert(int value) {
+        rootNode = insertElement(value, rootNode);
+        writeHeader();
+    }
+
+    public void delete(int value) {
+        rootNode = deleteElement(value, rootNode);
+        writeHeader();
+    }
+
+    public String preorderTraversal() {
+        StringBuilder sb = new StringBuilder();
+        preorderTraversal(rootNode, sb);
+        return sb.toString();
+    }
+
+    public void flush() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    // Map the header plus 'records' node records, growing the file if needed
+    private void map(int records) throws IOException {
+        long bytes = HEADER_SIZE + (long) records * RECORD_SIZE;
+        if (bytes > MAX_MAPPING)
+            throw new IOException("MappedAVLTree is limited to a 2GB mapping");
+
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        capacity = records;
+    }
+
+    private void writeHeader() {
+        buffer.putInt(H_ROOT, rootNode);
+        buffer.putInt(H_COUNT, nodeCount);
+        buffer.putInt(H_FREE, freeList);
+        buffer.putInt(H_UNUSED, nextUnused);
+    }
+
+    // Record accessors; 'node' is a record number
+    private int offset(int node)             { return HEADER_SIZE + node * RECORD_SIZE; }
+    private int value(int node)              { return buffer.getInt(offset(node) + VALUE); }
+    private int left(int node)               { return buffer.getInt(offset(node) + LEFT); }
+    private int right(int node)              { return buffer.getInt(offset(node) + RIGHT); }
+    private void setValue(int node, int v)   { buffer.putInt(offset(node) + VALUE, v); }
+    private void setLeft(int node, int c)    { buffer.putInt(offset(node) + LEFT, c); }
+    private void setRight(int node, int c)   { buffer.putInt(offset(node) + RIGHT, c); }
+
+    private int getHeight(int node) {
+        return node == NIL ? -1 : buffer.getInt(offset(node) + HEIGHT);
+    }
+
+    private int getMaxHeight(int leftNodeHeight, int rightNodeHeight) {
+        return leftNodeHeight > rightNodeHeight ? leftNodeHeight : rightNodeHeight;
+    }
+
+    private void updateHeight(int node) {
+        int height = getMaxHeight(getHeight(left(node)), getHeight(right(node))) + 1;
+        buffer.putInt(offset(node) + HEIGHT, height);
+    }
+
+    private int getBalanceFactor(int node) {
+        if (node == NIL) return 0;
+        return getHeight(left(node)) - getHeight(right(node));
+    }
+
+    private void preorderTraversal(int node, StringBuilder sb) {
+        if (node == NIL)
+            return;
+
+        sb.append(value(node)).append(' ');
+        preorderTraversal(left(node), sb);
+        preorderTraversal(right(node), sb);
+    }
+
+    private int allocateNode(int value) {
+        int node;
+
+        if (freeList != NIL) {
+            node = freeList;
+            freeList = left(node);
+        } else {
+            if (nextUnused == capacity) {
+                try {
+                    map((int) Math.min((long) capacity * 2, (MAX_MAPPING - HEADER_SIZE) / RECORD_SIZE));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to grow " + channel, e);
+                }
+                if (nextUnused == capacity)
+                    throw new IllegalStateException("MappedAVLTree is full");
+            }
+            node = nextUnused++;
+        }
+
+        setValue(node, value);
+        buffer.putInt(offset(node) + HEIGHT, 0);
+        setLeft(node, NIL);
+        setRight(node, NIL);
+        nodeCount++;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        setLeft(node, freeList);
+        freeList = node;
+        nodeCount--;
+    }
+
+    private int insertElement(int value, int node) {
+        if (node == NIL)
+            return allocateNode(value);
+
+        if (value < value(node)) {
+            setLeft(node, insertElement(value, left(node)));
+
+            if (Math.abs(getBalanceFactor(node)) > 1) {
+                if (value < value(left(node)))
+                    node = LLRotation(node);
+                else
+                    node = LRRotation(node);
+            }
+        } else if (value > value(node)) {
+            setRight(node, insertElement(value, right(node)));
+
+            if (Math.abs(getBalanceFactor(node)) > 1) {
+                if (value > value(right(node)))
+                    node = RRRotation(node);
+                else
+                    node = RLRotation(node);
+            }
+        }
+
+        updateHeight(node);
+
+        return node;
+    }
+
+    private int deleteElement(int value, int node) {
+        if (node == NIL)
+            return node;
+
+        if (value < value(node)) {
+            setLeft(node, deleteElement(value, left(node)));
+        } else if (value > value(node)) {
+            setRight(node, deleteElement(value, right(node)));
+        } else {
+            if ((left(node) == NIL) || (right(node) == NIL)) {
+                int temp = left(node) == NIL ? right(node) : left(node);
+                freeNode(node);
+                node = temp;
+            } else {
+                int temp = minValueNode(right(node));
+                setValue(node, value(temp));
+                setRight(node, deleteElement(value(temp), right(node)));
+            }
+        }
+
+        if (node == NIL)
+            return node;
+
+        updateHeight(node);
+
+        int balance = getBalanceFactor(node);
+
+        if (balance > 1 && getBalanceFactor(left(node)) >= 0)
+            return LLRotation(node);
+
+        if (balance > 1 && getBalanceFactor(left(node)) < 0) {
+            setLeft(node, RRRotation(left(node)));
+            return LLRotation(node);
+        }
+
+        if (balance < -1 && getBalanceFactor(right(node)) <= 0)
+            return RRRotation(node);
+
+        if (balance < -1 && getBalanceFactor(right(node)) > 0) {
+            setRight(node, LLRotation(right(node)));
+            return RRRotation(node);
+        }
+
+        return node;
+    }
+
+    private int minValueNode(int node) {
+        int current = node;
+        while (left(current) != NIL)
+            current = left(current);
+        return current;
+    }
+
+    // The rotations below mirror LUC_AVLTree's; see 'AVLTree.java' for the
+    // diagrams of each case.
+
+    private int LLRotation(int x) {
+        int y = left(x);
+        setLeft(x, right(y));
+        setRight(y, x);
+
+        updateHeight(x);
+        updateHeight(y);
+        return y;
+    }
+
+    private int LRRotation(int x) {
+        int y = left(x);
+        int z = right(y);
+        setRight(y, left(z));
+        setLeft(x, right(z));
+        setLeft(z, y);
+        setRight(z, x);
+
+        updateHeight(x);
+        updateHeight(y);
+        updateHeight(z);
+        return z;
+    }
+
+    private int RRRotation(int x) {
+        int y = right(x);
+        setRight(x, left(y));
+        setLeft(y, x);
+
+        updateHeight(x);
+        updateHeight(y);
+        return y;
+    }
+
+    private int RLRotation(int x) {
+        int y = right(x);
+        int z = left(y);
+        setLeft(y, right(z));
+        setRight(x, left(z));
+        setRight(z, y);
+        setLeft(z, x);
+
+        updateHeight(x);
+        updateHeight(y);
+        updateHeight(z);
+        return z;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file is an immutable (persistent) variant of the AVL tree in
+ * 'AVLTree.java'. Updates copy the path they change and share every other
+ * subtree with the previous version of the tree.
+ *
+ */
+
+
+/**
+ *  Class 'PersistentAVLTree'
+ *
+ *  Every PersistentAVLTree is immutable. insert() and delete() return a new
+ *  tree and leave the one they were called on untouched; the two versions
+ *  share all nodes except the O(log n) nodes on the root-to-leaf path that was
+ *  copied. Old versions stay readable for as long as something refers to
+ *  them, and are reclaimed by the garbage collector afterwards.
+ *
+ *  Taking a snapshot is therefore just keeping a reference. A writer can
+ *  publish each new version through a volatile field (or an AtomicReference)
+ *  and readers can keep using whatever version they loaded, with no locking
+ *  and no copying:
+ *
+ *      volatile PersistentAVLTree current = PersistentAVLTree.empty();
+ *      current = current.insert(42);               // writer
+ *      PersistentAVLTree snapshot = current;       // reader, O(1)
+ *
+ *  Nodes are the same Node objects LUC_AVLTree uses, but are never modified
+ *  once they are reachable from a tree; the rotations below build new nodes
+ *  instead of re-linking existing ones. Insertion and deletion choose the
+ *  same rotations as LUC_AVLTree, so both build trees of the same shape for
+ *  the same sequence of operations.
+ *
+ *  Public methods:
+ *   static PersistentAVLTree empty()     - returns the empty tree
+ *   boolean checkEmpty()                 - Returns boolean value if tree is empty or not
+ *   PersistentAVLTree insert(int value)  - returns a tree that also holds 'value'
+ *   PersistentAVLTree delete(int value)  - returns a tree without 'value'
+ *   boolean contains(int value)          - returns true if 'value' is in the tree
+ *   int     size()                       - returns the number of values in the tree
+ *   String  preorderTraversal()          - returns a preorder traversal of tree in a String
+ *
+ */
+
+final class PersistentAVLTree {
+    private static final PersistentAVLTree EMPTY = new PersistentAVLTree(null);
+
+    // Final, so that a tree handed to another thread is seen fully built
+    private final Node rootNode;
+
+    private PersistentAVLTree(Node rootNode) { this.rootNode = rootNode; }
+
+    public static PersistentAVLTree empty()   { return EMPTY; }
+    public boolean checkEmpty()               { return rootNode == null; }
+    public int size()                         { return getSize(rootNode); }
+
+    public PersistentAVLTree insert(int value) {
+        Node root = insertElement(value, rootNode);
+        return root == rootNode ? this : new PersistentAVLTree(root);
+    }
+
+    public PersistentAVLTree delete(int value) {
+        Node root = deleteElement(value, rootNode);
+        return root == rootNode ? this : new PersistentAVLTree(root);
+    }
+
+    public boolean contains(int value) {
+        Node node = rootNode;
+        while (node != null) {
+            if (value == node.value)
+                return true;
+            node = value < node.value ? node.leftChild : node.rightChild;
+        }
+        return false;
+    }
+
+    public String preorderTraversal() {
+        StringBuilder sb = new StringBuilder();
+        preorderTraversal(rootNode, sb);
+        return sb.toString();
+    }
+
+    private static int getHeight(Node node)  { return node == null ? -1 : node.height; }
+    private static int getSize(Node node)    { return node == null ? 0 : node.size; }
+
+    private static int getBalanceFactor(Node node) {
+        return node == null ? 0 : getHeight(node.leftChild) - getHeight(node.rightChild);
+    }
+
+    private static void preorderTraversal(Node node, StringBuilder sb) {
+        if (node == null)
+            return;
+
+        sb.append(node.value).append(' ');
+        preorderTraversal(node.leftChild, sb);
+        preorderTraversal(node.rightChild, sb);
+    }
+
+    // Create a node over two existing subtrees, computing its height, size and hash
+    private static Node newNode(int value, Node left, Node right) {
+        Node node = new Node(value);
+        node.leftChild  = left;
+        node.rightChild = right;
+        node.height = Math.max(getHeight(left), getHeight(right)) + 1;
+        node.size   = getSize(left) + getSize(right) + 1;
+        node.hash   = (left == null ? 0 : left.hash) + (right == null ? 0 : right.hash)
+                      + Node.hashOf(value);
+        return node;
+    }
+
+
+    /**
+     *  Method: insertElement
+     *
+     *  Returns the root of a [sub]tree equal to 'node' plus 'value'. If the
+     *  value is already present, 'node' itself is returned, which lets every
+     *  caller up the path return its own node unchanged as well.
+     *
+     *  @param  value - value to insert
+     *  @param  node  - root of the [sub]tree; not modified
+     *
+     *  @return root of the new [sub]tree
+     */
+
+    private static Node insertElement(int value, Node node) {
+        if (node == null)
+            return new Node(value);
+
+        if (value < node.value) {
+            Node left = insertElement(value, node.leftChild);
+            if (left == node.leftChild)
+                return node;
+            return balance(node.value, left, node.rightChild);
+        } else if (value > node.value) {
+            Node right = insertElement(value, node.rightChild);
+            if (right == node.rightChild)
+                return node;
+            return balance(node.value, node.leftChild, right);
+        }
+
+        return node;
+    }
+
+
+    /**
+     *  Method: deleteElement
+     *
+     *  Returns the root of a [sub]tree equal to 'node' minus 'value', or
+     *  'node' itself if the value is absent. As in LUC_AVLTree, a node with
+     *  two children is replaced by a copy holding its in-order successor.
+     *
+     *  @param  value - value to delete
+     *  @param  node  - root of the [sub]tree; not modified
+     *
+     *  @return root of the new [sub]tree
+     */
+
+    private static Node deleteElement(int value, Node node) {
+        if (node == null)
+            return null;
+
+        if (value < node.value) {
+            Node left = deleteElement(value, node.leftChild);
+            if (left == node.leftChild)
+                return node;
+            return balance(node.value, left, node.rightChild);
+        } else if (value > node.value) {
+            Node right = deleteElement(value, node.rightChild);
+            if (right == node.rightChild)
+                return node;
+            return balance(node.value, node.leftChild, right);
+        }
+
+        if ((node.leftChild == null) || (node.rightChild == null))
+            return node.leftChild == null ? node.rightChild : node.leftChild;
+
+        Node successor = node.rightChild;
+        while (successor.leftChild != null)
+            successor = successor.leftChild;
+
+        return balance(successor.value, node.leftChild,
+                       deleteElement(successor.value, node.rightChild));
+    }
+
+
+    /**
+     *  Method: balance
+     *
+     *  Builds a node holding 'value' over 'left' and 'right', applying the
+     *  rotation LUC_AVLTree.deleteElement() would apply if the two subtrees'
+     *  heights differ by two.
+     *
+     *  @return root of the new, balanced [sub]tree
+     */
+
+    private static Node balance(int value, Node left, Node right) {
+        int balance = getHeight(left) - getHeight(right);
+
+        if (balance > 1)
+            return getBalanceFactor(left) >= 0 ? LLRotation(value, left, right)
+                                               : LRRotation(value, left, right);
+        if (balance < -1)
+            return getBalanceFactor(right) <= 0 ? RRRotation(value, left, right)
+                                                : RLRotation(value, left, right);
+
+        return newNode(value, left, right);
+    }
+
+    // The rotations below are non-destructive counterparts of LUC_AVLTree's
+    // (see 'AVLTree.java' for the diagrams). X is the node being built, with
+    // value 'x' over subtrees 'left' and 'right'; Y and Z are copied, and the
+    // subtrees hanging below them are shared.
+
+    private static Node LLRotation(int x, Node left, Node right) {
+        Node y = left;
+        return newNode(y.value, y.leftChild, newNode(x, y.rightChild, right));
+    }
+
+    private static Node LRRotation(int x, Node left, Node right) {
+        Node y = left;
+        Node z = y.rightChild;
+        return newNode(z.value, newNode(y.value, y.leftChild, z.leftChild),
+                                newNode(x, z.rightChild, right));
+    }
+
+    private static Node RRRotation(int x, Node left, Node right) {
+        Node y = right;
+        return newNode(y.value, newNode(x, left, y.leftChild), y.rightChild);
+    }
+
+    private static Node RLRotation(int x, Node left, Node right) {
+        Node y = right;
+        Node z = y.leftChild;
+        return newNode(z.value, newNode(x, left, z.leftChild),
+                                newNode(y.value, z.rightChild, y.rightChild));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file contains the helper that streams a traversal of one of the
+ * trees straight to an Appendable or a WritableByteChannel, in the same text
+ * format preorderTraversal() / preOrder() return: each value followed by a
+ * single space.
+ *
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.PrimitiveIterator;
+
+
+/**
+ *  Class: TraversalWriter
+ *
+ *  Values are formatted as ASCII into one fixed-size buffer that is handed
+ *  to the destination each time it fills up, so exporting a tree of any size
+ *  uses a constant amount of memory besides the traversal's own cursor.
+ *
+ */
+
+final class TraversalWriter {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_ENTRY   = 12;      // "-2147483648 "
+
+    private TraversalWriter() { }
+
+    static void write(PrimitiveIterator.OfInt values, Appendable out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length = 0;
+
+        while (values.hasNext()) {
+            if (length > BUFFER_SIZE - MAX_ENTRY) {
+                out.append(new String(buffer, 0, length, StandardCharsets.US_ASCII));
+                length = 0;
+            }
+            length = format(values.nextInt(), buffer, length);
+        }
+        if (length > 0)
+            out.append(new String(buffer, 0, length, StandardCharsets.US_ASCII));
+    }
+
+    static void write(PrimitiveIterator.OfInt values, WritableByteChannel out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        byte[] bytes = buffer.array();
+        int length = 0;
+
+        while (values.hasNext()) {
+            if (length > BUFFER_SIZE - MAX_ENTRY) {
+                drain(buffer, length, out);
+                length = 0;
+            }
+            length = format(values.nextInt(), bytes, length);
+        }
+        drain(buffer, length, out);
+    }
+
+    private static void drain(ByteBuffer buffer, int length, WritableByteChannel out) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining())
+            out.write(buffer);
+    }
+
+    // Write 'value' and a trailing space into 'buffer' at 'pos'; returns the new end
+    private static int format(int value, byte[] buffer, int pos) {
+        long remaining = value;
+        if (remaining < 0) {
+            buffer[pos++] = '-';
+            remaining = -remaining;
+        }
+
+        int start = pos;
+        do {
+            buffer[pos++] = (byte) ('0' + (int) (remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+
+        buffer[pos++] = ' ';
+        return pos;
+    }
+}
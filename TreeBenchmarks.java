@@ -0,0 +1,212 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file is the regression benchmark suite for the tree structures:
+ * LUC_AVLTree insert / delete, BinaryTree insert / findMin / nodesGT /
+ * average and the three TreeProblems methods, each run on sequential,
+ * random, Zipfian and adversarial keys at sizes from 10^3 up to 'maxSize'
+ * in powers of 10. Every case reports throughput and allocation (see
+ * BenchmarkRunner.run()); the tree updates also report latency percentiles.
+ *
+ * Usage: java TreeBenchmarks [maxSize] [workload ...]
+ *        mvn -P benchmark compile exec:java -Dexec.args="[maxSize] [workload ...]"
+ *
+ * 'maxSize' defaults to 10^6; 10^7 needs a heap of about 4 GB (-Xmx4g) for
+ * the boxed TreeSet / TreeMap inputs of TreeProblems. The workloads are
+ * 'sequential', 'random', 'zipfian' and 'adversarial'; all four are run by
+ * default.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class TreeBenchmarks {
+
+  private static final String[] WORKLOADS = { "sequential", "random", "zipfian", "adversarial" };
+  private static final double ZIPF_THETA = 0.99;     // Skew used by YCSB
+
+  public static void main(String[] args) {
+      int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+      String[] workloads = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : WORKLOADS;
+      BenchmarkRunner runner = new BenchmarkRunner(3, 5);
+
+      for (int size = 1_000; size <= maxSize; size *= 10) {
+          for (String workload : workloads) {
+              int[] keys = keys(workload, size, new Random(42));
+
+              System.out.println("\n" + workload + " keys, " + size + " operations");
+              avlTree(runner, keys);
+              binaryTree(runner, keys);
+              treeProblems(runner, keys);
+          }
+      }
+  }
+
+  private static void avlTree(BenchmarkRunner runner, int[] keys) {
+      int n = keys.length;
+
+      runner.run("LUC_AVLTree.insert", n,
+                 () -> new LUC_AVLTree(),
+                 tree -> { for (int key : keys) tree.insert(key); return tree; });
+      runner.latency("LUC_AVLTree.insert", n,
+                     () -> new LUC_AVLTree(),
+                     (tree, i) -> { tree.insert(keys[i]); return tree; });
+
+      runner.run("LUC_AVLTree.delete", n,
+                 () -> new LUC_AVLTree(keys),
+                 tree -> { for (int key : keys) tree.delete(key); return tree; });
+      runner.latency("LUC_AVLTree.delete", n,
+                     () -> new LUC_AVLTree(keys),
+                     (tree, i) -> { tree.delete(keys[i]); return tree; });
+  }
+
+  private static void binaryTree(BenchmarkRunner runner, int[] keys) {
+      int n = keys.length;
+      int threshold = keys[n / 2];
+
+      BinaryTree tree = new BinaryTree(), indexed = new BinaryTree(true);
+      for (int key : keys) {
+          tree.insert(key);
+          indexed.insert(key);
+      }
+
+      runner.run("BinaryTree.insert", n,
+                 () -> new BinaryTree(),
+                 t -> { for (int key : keys) t.insert(key); return t; });
+      runner.latency("BinaryTree.insert", n,
+                     () -> new BinaryTree(),
+                     (t, i) -> { t.insert(keys[i]); return t; });
+
+      runner.run("BinaryTree.findMin", n,
+                 () -> tree, t -> { long sum = 0; for (int i = 0; i < n; i++) sum += t.findMin(); return sum; });
+      runner.run("BinaryTree.average", n,
+                 () -> tree, t -> { double sum = 0; for (int i = 0; i < n; i++) sum += t.average(); return sum; });
+
+      // One call visits every node; the cost is reported per node
+      runner.run("BinaryTree.nodesGT (per node)", n,
+                 () -> tree, t -> t.nodesGT(threshold));
+      runner.run("BinaryTree.nodesGT (indexed, per call)", n,
+                 () -> indexed, t -> { long sum = 0; for (int key : keys) sum += t.nodesGT(key); return sum; });
+  }
+
+  // The TreeProblems inputs: two sets overlapping by half for different(),
+  // and two equal maps, the worst case of treesEqual(). Costs are per key.
+  private static void treeProblems(BenchmarkRunner runner, int[] keys) {
+      int n = keys.length;
+      Set<Integer> setA = new TreeSet<>(), setB = new TreeSet<>();
+      Map<Integer, String> mapA = new TreeMap<>(), mapB = new TreeMap<>();
+
+      for (int i = 0; i < n; i++) {
+          if (i < n / 2)
+              setA.add(keys[i]);
+          if ((i >= n / 4) && (i < 3 * n / 4))
+              setB.add(keys[i]);
+          mapA.put(keys[i], "v");
+          mapB.put(keys[i], "v");
+      }
+
+      TreeProblems problems = new TreeProblems();
+
+      runner.run("TreeProblems.different", n,
+                 () -> null, unused -> TreeProblems.different(setA, setB));
+      runner.run("TreeProblems.removeEven", n,
+                 () -> new TreeMap<>(mapA),
+                 map -> { TreeProblems.removeEven(map); return map; });
+      runner.run("TreeProblems.treesEqual", n,
+                 () -> null, unused -> problems.treesEqual(mapA, mapB));
+  }
+
+
+  /**
+   *  Method: keys
+   *
+   *  Returns the keys of one workload, in the order the operations use them:
+   *    - sequential : 0, 1, 2, ... ascending;
+   *    - random     : a random permutation of [0, n);
+   *    - zipfian    : n draws from [0, n) with Zipfian popularity (see
+   *                   zipfian()), so a few hot keys repeat many times;
+   *    - adversarial: [0, n) taken alternately from both ends (0, n-1, 1,
+   *                   n-2, ...). Every insert lands at the far edge of one
+   *                   side of the AVL tree, so each update walks the longest
+   *                   path and rebalancing alternates between the two sides.
+   *
+   *  @param  workload - one of WORKLOADS
+   *  @param  n        - # of keys
+   *  @param  rnd      - source of randomness
+   *
+   *  @return the keys
+   */
+
+  static int[] keys(String workload, int n, Random rnd) {
+      int[] keys = new int[n];
+
+      switch (workload) {
+          case "sequential":
+              for (int i = 0; i < n; i++)
+                  keys[i] = i;
+              return keys;
+
+          case "random":
+              return permutation(n, rnd);
+
+          case "zipfian":
+              return zipfian(n, rnd);
+
+          case "adversarial":
+              for (int i = 0, lo = 0, hi = n - 1; i < n; i++)
+                  keys[i] = (i & 1) == 0 ? lo++ : hi--;
+              return keys;
+
+          default:
+              throw new IllegalArgumentException("unknown workload: " + workload);
+      }
+  }
+
+  private static int[] permutation(int n, Random rnd) {
+      int[] keys = new int[n];
+      for (int i = 0; i < n; i++)
+          keys[i] = i;
+      for (int i = n - 1; i > 0; i--) {
+          int j = rnd.nextInt(i + 1);
+          int tmp = keys[i]; keys[i] = keys[j]; keys[j] = tmp;
+      }
+      return keys;
+  }
+
+  // n draws from [0, n) where the k-th most popular key is drawn with a
+  // probability proportional to 1 / k^ZIPF_THETA. Ranks are drawn with the
+  // method of Gray et al., "Quickly Generating Billion-Record Synthetic
+  // Databases" (also used by YCSB), in O(1) each after an O(n) setup. They
+  // are mapped through a random permutation so the hot keys are scattered
+  // over the key range instead of being its smallest values.
+  private static int[] zipfian(int n, Random rnd) {
+      double zetaN = 0;
+      for (int i = 1; i <= n; i++)
+          zetaN += 1 / Math.pow(i, ZIPF_THETA);
+
+      double zeta2 = 1 + 1 / Math.pow(2, ZIPF_THETA);
+      double alpha = 1 / (1 - ZIPF_THETA);
+      double eta   = (1 - Math.pow(2.0 / n, 1 - ZIPF_THETA)) / (1 - zeta2 / zetaN);
+
+      int[] scatter = permutation(n, rnd);
+      int[] keys = new int[n];
+      for (int i = 0; i < n; i++) {
+          double u  = rnd.nextDouble();
+          double uz = u * zetaN;
+          int rank;
+          if (uz < 1)
+              rank = 0;
+          else if (uz < zeta2)
+              rank = 1;
+          else
+              rank = (int) Math.min(n - 1, (long) (n * Math.pow(eta * u - eta + 1, alpha)));
+          keys[i] = scatter[rank];
+      }
+      return keys;
+  }
+}
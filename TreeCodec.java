@@ -0,0 +1,155 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file contains the compact binary file format shared by
+ * LUC_AVLTree and BinaryTree (see their writeTo() / readFrom() methods),
+ * streamed through NIO channels.
+ *
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ *  Class: TreeCodec
+ *
+ *  A file holds:
+ *    - a 4-byte magic number naming the kind of tree and format version;
+ *    - the # of values, as a varint;
+ *    - the values, in the order the tree's reader rebuilds them from, each
+ *      as the zigzag varint of its difference from the previous value (the
+ *      first from 0).
+ *
+ *  A varint stores 7 bits per byte, low bits first, with the high bit of
+ *  each byte set when more follow. Zigzag maps differences of small
+ *  magnitude, either sign, to small unsigned numbers (0, -1, 1, -2, ... to
+ *  0, 1, 2, 3, ...). Each value therefore takes 1 to 5 bytes, against up to
+ *  12 characters in the text form, and neighbouring values in a tree are
+ *  usually close.
+ *
+ *  Both directions go through one fixed-size buffer, so streaming a tree of
+ *  any size uses a constant amount of memory besides the tree itself.
+ *
+ */
+
+final class TreeCodec {
+    static final int AVL_TREE    = 0x41564C31;     // "AVL1"
+    static final int BINARY_TREE = 0x42545231;     // "BTR1"
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_ENTRY   = 10;     // longest varint of a long
+
+    private TreeCodec() { }
+
+
+    // Writes one file: the header on construction, then each value given
+    // to writeInt(); finish() flushes what is left in the buffer
+    static final class Writer {
+        private final WritableByteChannel out;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private int previous;
+
+        Writer(WritableByteChannel out, int magic, int count) throws IOException {
+            this.out = out;
+            buffer.putInt(magic);
+            putVarint(count);
+        }
+
+        void writeInt(int value) throws IOException {
+            if (buffer.remaining() < MAX_ENTRY)
+                drain();
+
+            long delta = (long) value - previous;
+            putVarint((delta << 1) ^ (delta >> 63));
+            previous = value;
+        }
+
+        void finish() throws IOException {
+            drain();
+        }
+
+        private void putVarint(long bits) {
+            while ((bits & ~0x7FL) != 0) {
+                buffer.put((byte) ((bits & 0x7F) | 0x80));
+                bits >>>= 7;
+            }
+            buffer.put((byte) bits);
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                out.write(buffer);
+            buffer.clear();
+        }
+    }
+
+
+    // Reads one file: the header on construction, then count() values with
+    // nextInt(). Truncated or malformed input raises an IOException.
+    static final class Reader {
+        private final ReadableByteChannel in;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final int count;
+        private int previous;
+
+        Reader(ReadableByteChannel in, int magic) throws IOException {
+            this.in = in;
+            buffer.limit(0);
+
+            int found = 0;
+            for (int i = 0; i < 4; i++)
+                found = (found << 8) | (nextByte() & 0xFF);
+            if (found != magic)
+                throw new IOException(String.format("not a tree file of this kind: magic %08x, expected %08x",
+                                                    found, magic));
+
+            long count = nextVarint();
+            if (count > Integer.MAX_VALUE)
+                throw new IOException("corrupt tree file: " + count + " values");
+            this.count = (int) count;
+        }
+
+        int count()                     { return count; }
+
+        int nextInt() throws IOException {
+            long bits = nextVarint();
+            long value = previous + ((bits >>> 1) ^ -(bits & 1));
+            if ((value < Integer.MIN_VALUE) || (value > Integer.MAX_VALUE))
+                throw new IOException("corrupt tree file: value out of range");
+
+            previous = (int) value;
+            return previous;
+        }
+
+        private long nextVarint() throws IOException {
+            long bits = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = nextByte();
+                bits |= (long) (b & 0x7F) << shift;
+                if (b >= 0)
+                    return bits;
+            }
+            throw new IOException("corrupt tree file: varint too long");
+        }
+
+        private byte nextByte() throws IOException {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                int read;
+                do {
+                    read = in.read(buffer);
+                } while (read == 0);
+                buffer.flip();
+
+                if (read < 0)
+                    throw new EOFException("truncated tree file");
+            }
+            return buffer.get();
+        }
+    }
+}
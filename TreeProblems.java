@@ -34,6 +34,32 @@ public class TreeProblems {
   }
 
 
+  /**
+   * Method different()
+   *
+   * Same as above for two AVL trees of ints: returns a new tree holding the
+   * values that are in one tree but not the other. Nothing is boxed, and the
+   * work is split across the common ForkJoinPool (see
+   * LUC_AVLTree.symmetricDifference). Neither input is modified.
+   */
+
+  public static LUC_AVLTree different(LUC_AVLTree treeA, LUC_AVLTree treeB) {
+    return LUC_AVLTree.symmetricDifference(treeA, treeB);
+  }
+
+
+  /**
+   * Method different()
+   *
+   * Same as above for two IntSortedSets, the unboxed replacement for
+   * TreeSet<Integer>.
+   */
+
+  public static IntSortedSet different(IntSortedSet setA, IntSortedSet setB) {
+    return IntSortedSet.symmetricDifference(setA, setB);
+  }
+
+
   /**
    * Method removeEven()
    *
@@ -53,6 +79,19 @@ public class TreeProblems {
   }
 
 
+  /**
+   * Method removeEven()
+   *
+   * Same as above for an IntObjectSortedMap. The keys are tested in one pass
+   * and the map is rebuilt once (see LUC_AVLTree.removeIf), instead of
+   * paying a rebalancing delete per removed key.
+   */
+
+  public static void removeEven(IntObjectSortedMap<String> treeMap) {
+    treeMap.removeIf(key -> key % 2 == 0);
+  }
+
+
   /**
    * Method treesEqual()
    *
@@ -65,4 +104,16 @@ public class TreeProblems {
     return tree1.equals(tree2);
   }
 
+
+  /**
+   * Method treesEqual()
+   *
+   * Same as above for two IntObjectSortedMaps. Maps with different key sets
+   * are rejected in O(1) by comparing the trees' content hashes.
+   */
+
+  public boolean treesEqual(IntObjectSortedMap<String> tree1, IntObjectSortedMap<String> tree2) {
+    return tree1.equals(tree2);
+  }
+
 } // end treeProblems class
@@ -0,0 +1,202 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file contains the optional value index of BinaryTree: a sorted
+ * multiset of the values in the tree that also records, for each distinct
+ * value, the level-order positions of the nodes holding it.
+ *
+ */
+
+import java.util.Arrays;
+
+
+/**
+ *  Class 'ValueIndex'
+ *
+ *  An AVL tree with one entry per distinct value. Each entry keeps the
+ *  positions (level-order indexes in the BinaryTree) of the nodes holding its
+ *  value, and the total # of positions in its subtree, so that the number of
+ *  values above a threshold is a single O(log n) walk. Balancing follows
+ *  LUC_AVLTree; see 'AVLTree.java' for the rotation diagrams.
+ *
+ *  Public methods:
+ *   void  add(int value, int position)  - records one node holding 'value'
+ *   int[] removeValue(int value)        - forgets every node holding 'value'; returns their positions
+ *   void  addAll(int value, int[] positions) - records several nodes holding 'value'
+ *   int   countGreater(int value)       - # of nodes holding a value larger than 'value'
+ *   int   size()                        - # of nodes recorded
+ *
+ */
+
+class ValueIndex {
+
+    // One distinct value and the positions of the nodes holding it
+    private static final class Entry {
+        int value;
+        int[] positions;
+        int length;                 // # of positions in use
+        int height;
+        int total;                  // # of positions in this entry's subtree
+        Entry left, right;
+
+        Entry(int value) {
+            this.value = value;
+            this.positions = new int[2];
+        }
+
+        void append(int[] more, int count) {
+            if (length + count > positions.length)
+                positions = Arrays.copyOf(positions, Math.max(2 * positions.length, length + count));
+            System.arraycopy(more, 0, positions, length, count);
+            length += count;
+        }
+    }
+
+    private Entry root;
+    private final int[] single = new int[1];
+
+    public int size()                   { return getTotal(root); }
+
+    public void add(int value, int position) {
+        single[0] = position;
+        root = insert(root, value, single, 1);
+    }
+
+    public void addAll(int value, int[] positions) {
+        if (positions.length > 0)
+            root = insert(root, value, positions, positions.length);
+    }
+
+    public int[] removeValue(int value) {
+        Entry entry = root;
+        while (entry != null && entry.value != value)
+            entry = value < entry.value ? entry.left : entry.right;
+
+        if (entry == null)
+            return null;
+
+        int[] positions = Arrays.copyOf(entry.positions, entry.length);
+        root = delete(root, value);
+        return positions;
+    }
+
+
+    /**
+     *  Method: countGreater
+     *
+     *  Returns the # of recorded nodes whose value is larger than 'value'.
+     *  Walks a single root-to-leaf path, adding up the entries and right
+     *  subtrees passed over on the way left.
+     *
+     *  @param  value - threshold, exclusive
+     *
+     *  @return # of nodes holding a value > 'value'
+     */
+
+    public int countGreater(int value) {
+        int count = 0;
+        Entry entry = root;
+
+        while (entry != null) {
+            if (value < entry.value) {
+                count += entry.length + getTotal(entry.right);
+                entry = entry.left;
+            } else {
+                entry = entry.right;
+            }
+        }
+        return count;
+    }
+
+    private int getHeight(Entry entry)  { return entry == null ? -1 : entry.height; }
+    private int getTotal(Entry entry)   { return entry == null ? 0 : entry.total; }
+
+    private int getBalanceFactor(Entry entry) {
+        return entry == null ? 0 : getHeight(entry.left) - getHeight(entry.right);
+    }
+
+    private void update(Entry entry) {
+        entry.height = Math.max(getHeight(entry.left), getHeight(entry.right)) + 1;
+        entry.total  = getTotal(entry.left) + getTotal(entry.right) + entry.length;
+    }
+
+    private Entry insert(Entry entry, int value, int[] positions, int count) {
+        if (entry == null) {
+            entry = new Entry(value);
+            entry.append(positions, count);
+            update(entry);
+            return entry;
+        }
+
+        if (value < entry.value)
+            entry.left = insert(entry.left, value, positions, count);
+        else if (value > entry.value)
+            entry.right = insert(entry.right, value, positions, count);
+        else
+            entry.append(positions, count);
+
+        update(entry);
+        return rebalance(entry);
+    }
+
+    private Entry delete(Entry entry, int value) {
+        if (value < entry.value) {
+            entry.left = delete(entry.left, value);
+        } else if (value > entry.value) {
+            entry.right = delete(entry.right, value);
+        } else {
+            if ((entry.left == null) || (entry.right == null))
+                return entry.left == null ? entry.right : entry.left;
+
+            Entry successor = entry.right;
+            while (successor.left != null)
+                successor = successor.left;
+
+            entry.value     = successor.value;
+            entry.positions = successor.positions;
+            entry.length    = successor.length;
+            entry.right     = delete(entry.right, successor.value);
+        }
+
+        update(entry);
+        return rebalance(entry);
+    }
+
+    // Rotate 'entry' back into balance, choosing the rotation the way
+    // LUC_AVLTree.deleteElement() does; returns the new top of the [sub]tree.
+    private Entry rebalance(Entry entry) {
+        int balance = getBalanceFactor(entry);
+
+        if (balance > 1) {
+            if (getBalanceFactor(entry.left) < 0)
+                entry.left = RRRotation(entry.left);
+            return LLRotation(entry);
+        }
+        if (balance < -1) {
+            if (getBalanceFactor(entry.right) > 0)
+                entry.right = LLRotation(entry.right);
+            return RRRotation(entry);
+        }
+        return entry;
+    }
+
+    private Entry LLRotation(Entry x) {
+        Entry y = x.left;
+        x.left = y.right;
+        y.right = x;
+
+        update(x);
+        update(y);
+        return y;
+    }
+
+    private Entry RRRotation(Entry x) {
+        Entry y = x.right;
+        x.right = y.left;
+        y.left = x;
+
+        update(x);
+        update(y);
+        return y;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file is a multi-threaded stress check of ConcurrentAVLTree.
+ *
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+
+/**
+ *  Each thread owns the keys congruent to its number modulo the # of
+ *  threads, and is the only one to insert or delete them. The keys of all
+ *  threads interleave, so their updates land in the same subtrees and race
+ *  on the same rotations, yet every thread can predict exactly what
+ *  contains() must return for its own keys: a model of them kept on the
+ *  side. Once all threads are done, size() must equal the sum of the models.
+ */
+
+class ConcurrentAVLTreeTest {
+
+    private static final int THREADS    = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private static final int KEYS_EACH  = 2_000;
+    private static final int OPERATIONS = 300_000;    // per thread
+
+    @Test
+    void disjointKeySetsMatchTheirModels() throws Exception {
+        ConcurrentAVLTree tree = new ConcurrentAVLTree();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+        try {
+            List<Future<boolean[]>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++)
+                results.add(pool.submit(worker(tree, t)));
+
+            int expectedSize = 0;
+            for (int t = 0; t < THREADS; t++) {
+                boolean[] model = results.get(t).get();
+                for (int k = 0; k < KEYS_EACH; k++) {
+                    assertEquals(model[k], tree.contains(key(t, k)), "key " + key(t, k) + " after the run");
+                    if (model[k])
+                        expectedSize++;
+                }
+            }
+            assertEquals(expectedSize, tree.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Callable<boolean[]> worker(ConcurrentAVLTree tree, int thread) {
+        return () -> {
+            Random rnd = new Random(thread);
+            boolean[] model = new boolean[KEYS_EACH];
+
+            for (int i = 0; i < OPERATIONS; i++) {
+                int k = rnd.nextInt(KEYS_EACH);
+                int key = key(thread, k);
+
+                switch (rnd.nextInt(3)) {
+                    case 0:  tree.insert(key);  model[k] = true;   break;
+                    case 1:  tree.delete(key);  model[k] = false;  break;
+                    default: break;
+                }
+                if (tree.contains(key) != model[k])
+                    throw new AssertionError("thread " + thread + ", operation " + i + ": contains(" + key
+                                             + ") disagrees with the model (" + model[k] + ")");
+            }
+            return model;
+        };
+    }
+
+    // Keys of different threads interleave; negative ones exercise the left side
+    private static int key(int thread, int k) {
+        return (k - KEYS_EACH / 2) * THREADS + thread;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file checks that DurableAVLTree comes back from its directory
+ * with the right contents after a clean close and after the damage a crash
+ * can leave behind, and that it refuses damage a crash cannot explain.
+ *
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class DurableAVLTreeTest {
+
+    @TempDir
+    Path directory;
+
+    // Random updates applied to 'model' and, unless it is null, to 'tree',
+    // with a removeAll now and then
+    private static void update(DurableAVLTree tree, TreeSet<Integer> model, Random rnd, int count)
+            throws IOException {
+        for (int i = 0; i < count; i++) {
+            int value = rnd.nextInt(2_000) - 1_000;
+            int op = rnd.nextInt(1_000);
+            if (op == 0) {
+                model.clear();
+                if (tree != null)
+                    tree.removeAll();
+            } else if (op % 3 == 0) {
+                model.remove(value);
+                if (tree != null)
+                    tree.delete(value);
+            } else {
+                model.add(value);
+                if (tree != null)
+                    tree.insert(value);
+            }
+        }
+    }
+
+    private static void assertContents(TreeSet<Integer> model, DurableAVLTree tree) {
+        List<Integer> values = new ArrayList<>();
+        for (PrimitiveIterator.OfInt it = tree.inorderIterator(); it.hasNext(); )
+            values.add(it.nextInt());
+        assertEquals(new ArrayList<>(model), values);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().startsWith("wal-")).sorted().toList();
+        }
+    }
+
+    private Path newestSegment() throws IOException {
+        List<Path> segments = segments();
+        return segments.get(segments.size() - 1);
+    }
+
+    private static void append(Path file, byte[] bytes) throws IOException {
+        Files.write(file, bytes, StandardOpenOption.APPEND);
+    }
+
+    // A frame holding one record, for a value in [0, 64), with a correct CRC
+    private static byte[] frame(int opcode, int value) {
+        byte[] payload = { (byte) opcode, (byte) (value << 1) };
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        return ByteBuffer.allocate(8 + payload.length)
+                         .putInt(payload.length).putInt((int) crc.getValue()).put(payload).array();
+    }
+
+
+    @Test
+    void reopensAfterCloseAndKeepsNumbering() throws IOException {
+        Random rnd = new Random(1);
+        TreeSet<Integer> model = new TreeSet<>();
+        long lsn;
+
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 5, 0)) {
+            update(tree, model, rnd, 20_000);
+            lsn = tree.lastSequence();
+        }
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 5, 0)) {
+            assertContents(model, tree);
+            assertEquals(lsn, tree.lastSequence());
+            update(tree, model, rnd, 5_000);
+        }
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 5, 0)) {
+            assertContents(model, tree);
+            assertEquals(lsn + 5_000, tree.lastSequence());
+        }
+    }
+
+    @Test
+    void replaysRemoveAll() throws IOException {
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 0, 0)) {
+            for (int value = 0; value < 100; value++)
+                tree.insert(value);
+            tree.removeAll();
+            tree.insert(7);
+            tree.insert(3);
+        }
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 0, 0)) {
+            assertContents(new TreeSet<>(List.of(3, 7)), tree);
+            assertEquals(103, tree.lastSequence());
+        }
+    }
+
+    @Test
+    void truncatesGarbageAppendedToTheNewestSegment() throws IOException {
+        Random rnd = new Random(2);
+        TreeSet<Integer> model = new TreeSet<>();
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 0, 0)) {
+            update(tree, model, rnd, 10_000);
+        }
+
+        Path newest = newestSegment();
+        long size = Files.size(newest);
+        append(newest, new byte[] { 0, 0, 0, 20, 1, 2, 3, 4, 5 });   // frame header and a cut-off payload
+
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 0, 0)) {
+            assertContents(model, tree);
+        }
+        assertEquals(size, Files.size(newest));
+    }
+
+    @Test
+    void truncatesAZeroFilledTail() throws IOException {
+        TreeSet<Integer> model = new TreeSet<>();
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 0, 0)) {
+            update(tree, model, new Random(3), 1_000);
+        }
+
+        Path newest = newestSegment();
+        long size = Files.size(newest);
+        append(newest, new byte[3 << 20]);      // longer than any one frame
+
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 0, 0)) {
+            assertContents(model, tree);
+        }
+        assertEquals(size, Files.size(newest));
+    }
+
+    @Test
+    void refusesDamageFollowedByAnIntactFrame() throws IOException {
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 0, 0)) {
+            tree.insert(1);
+            tree.sync();
+        }
+
+        // A frame whose CRC is wrong, then a good one: bit rot, not a torn write
+        Path newest = newestSegment();
+        byte[] rotten = frame(1, 5);
+        rotten[9] ^= 0x10;
+        append(newest, rotten);
+        append(newest, frame(1, 6));
+
+        IOException e = assertThrows(IOException.class, () -> DurableAVLTree.open(directory, 0, 0));
+        assertTrue(e.getMessage().contains("corrupt log segment"), e.getMessage());
+    }
+
+    @Test
+    void refusesUnknownRecordsEvenWhenCoveredByTheCheckpoint() throws IOException {
+        Path first;
+        byte[] saved;
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 0, 0)) {
+            for (int value = 0; value < 10; value++)
+                tree.insert(value);
+            tree.sync();
+            first = newestSegment();
+            saved = Files.readAllBytes(first);
+            tree.checkpoint();
+        }
+
+        // Bring back the segment the checkpoint deleted with its first
+        // record's opcode replaced (and the CRC fixed up). The record's LSN
+        // is covered by the checkpoint, so replay skips it, but it must be
+        // rejected all the same.
+        int length = ByteBuffer.wrap(saved).getInt(0);
+        saved[8] = 9;
+        CRC32C crc = new CRC32C();
+        crc.update(saved, 8, length);
+        ByteBuffer.wrap(saved).putInt(4, (int) crc.getValue());
+        Files.write(first, saved);
+
+        IOException e = assertThrows(IOException.class, () -> DurableAVLTree.open(directory, 0, 0));
+        assertTrue(e.getMessage().contains("unknown log record"), e.getMessage());
+    }
+
+    @Test
+    void recoversFromACrashBetweenCheckpointRenameAndSegmentDeletion() throws IOException {
+        Random rnd = new Random(4);
+        TreeSet<Integer> model = new TreeSet<>();
+        Map<Path, byte[]> beforeCheckpoint = new HashMap<>();
+
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, -1, 0)) {
+            update(tree, model, rnd, 10_000);
+            tree.sync();
+            for (Path segment : segments())
+                beforeCheckpoint.put(segment, Files.readAllBytes(segment));
+
+            tree.checkpoint();
+            update(tree, model, rnd, 3_000);
+        }
+
+        // Put back the segments the checkpoint deleted, as if the process
+        // had died right after renaming the new checkpoint into place
+        for (Map.Entry<Path, byte[]> segment : beforeCheckpoint.entrySet())
+            if (!Files.exists(segment.getKey()))
+                Files.write(segment.getKey(), segment.getValue());
+        assertTrue(segments().size() > 1);
+
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, -1, 0)) {
+            assertContents(model, tree);
+            assertEquals(13_000, tree.lastSequence());
+
+            // The next checkpoint cleans up the stale segments
+            tree.checkpoint();
+        }
+        assertEquals(1, segments().size());
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, -1, 0)) {
+            assertContents(model, tree);
+        }
+    }
+
+    @Test
+    void automaticCheckpointsKeepTheLogShort() throws IOException {
+        Random rnd = new Random(5);
+        TreeSet<Integer> model = new TreeSet<>();
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 10, 4_000)) {
+            update(tree, model, rnd, 30_000);
+        }
+        assertTrue(Files.exists(directory.resolve("checkpoint")));
+        assertTrue(segments().size() <= 2, segments().toString());
+
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 10, 4_000)) {
+            assertContents(model, tree);
+            assertEquals(30_000, tree.lastSequence());
+        }
+    }
+
+    @Test
+    void readsTheDocumentedFrameFormat() throws IOException {
+        Files.write(directory.resolve("wal-0000000000000001.log"), frame(1, 5));
+
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 0, 0)) {
+            assertContents(new TreeSet<>(List.of(5)), tree);
+            assertEquals(1, tree.lastSequence());
+            tree.insert(6);
+        }
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 0, 0)) {
+            assertContents(new TreeSet<>(List.of(5, 6)), tree);
+        }
+    }
+
+    @Test
+    void recoversAfterTheProcessIsKilled() throws Exception {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                           CrashingWriter.class.getName(), directory.toString())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        long synced = Long.parseLong(new String(child.getInputStream().readAllBytes()).trim());
+        assertEquals(0, child.waitFor());
+
+        TreeSet<Integer> model = new TreeSet<>();
+        Random rnd = new Random(CrashingWriter.SEED);
+        try (DurableAVLTree tree = DurableAVLTree.open(directory, 0, 0)) {
+            long recovered = tree.lastSequence();
+            assertTrue(recovered >= synced, "recovered " + recovered + " < synced " + synced);
+
+            // The tree must be exactly the first 'recovered' updates
+            update(null, model, rnd, (int) recovered);
+            assertContents(model, tree);
+        }
+    }
+
+    // Child process for recoversAfterTheProcessIsKilled(): makes updates
+    // with automatic checkpoints, prints how many were synced halfway, and
+    // dies without closing the tree
+    static final class CrashingWriter {
+        static final long SEED = 6;
+        static final int UPDATES = 200_000;
+
+        public static void main(String[] args) throws IOException {
+            Random rnd = new Random(SEED);
+            DurableAVLTree tree = DurableAVLTree.open(Path.of(args[0]), 10, 70_000);
+            update(tree, new TreeSet<>(), rnd, UPDATES / 2);
+            tree.sync();
+            System.out.println(tree.lastSequence());
+            System.out.flush();
+            update(tree, new TreeSet<>(), rnd, UPDATES / 2);
+            Runtime.getRuntime().halt(0);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file checks LUC_AVLTree against java.util.TreeSet on random
+ * sequences of inserts and deletes, for both update paths.
+ *
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+
+class LUC_AVLTreeTest {
+
+    private static final int OPERATIONS = 200_000;
+    private static final int KEY_RANGE  = 5_000;      // small, so deletes often hit
+
+    @ParameterizedTest(name = "iterative = {0}")
+    @ValueSource(booleans = { false, true })
+    void matchesTreeSet(boolean iterative) {
+        Random rnd = new Random(272);
+        LUC_AVLTree tree = new LUC_AVLTree(iterative);
+        TreeSet<Integer> model = new TreeSet<>();
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            int value = rnd.nextInt(KEY_RANGE) - KEY_RANGE / 2;
+            if (rnd.nextInt(3) < 2) {
+                tree.insert(value);
+                model.add(value);
+            } else {
+                tree.delete(value);
+                model.remove(value);
+            }
+
+            int probe = rnd.nextInt(KEY_RANGE) - KEY_RANGE / 2;
+            assertEquals(model.contains(probe), tree.contains(probe), "contains " + probe);
+            assertEquals(model.size(), tree.size());
+
+            if (i % 10_000 == 0) {
+                assertNull(tree.checkInvariants());
+                assertEquals(new ArrayList<>(model), inorder(tree));
+                assertEquals(model.headSet(probe).size(), tree.rank(probe));
+                if (!model.isEmpty()) {
+                    int k = rnd.nextInt(model.size());
+                    assertEquals(new ArrayList<>(model).get(k).intValue(), tree.select(k));
+                }
+            }
+        }
+
+        assertNull(tree.checkInvariants());
+        assertEquals(new ArrayList<>(model), inorder(tree));
+    }
+
+    @ParameterizedTest(name = "iterative = {0}")
+    @ValueSource(booleans = { false, true })
+    void bulkLoadHoldsTheSameValuesAndKeepsUpdating(boolean iterative) {
+        Random rnd = new Random(5);
+        int[] values = rnd.ints(20_000, -KEY_RANGE, KEY_RANGE).toArray();
+        LUC_AVLTree tree = new LUC_AVLTree(values, iterative);
+        TreeSet<Integer> model = new TreeSet<>();
+        for (int value : values)
+            model.add(value);
+
+        assertNull(tree.checkInvariants());
+        assertEquals(new ArrayList<>(model), inorder(tree));
+
+        for (int i = 0; i < 20_000; i++) {
+            int value = rnd.nextInt(2 * KEY_RANGE) - KEY_RANGE;
+            if (rnd.nextBoolean()) {
+                tree.insert(value);
+                model.add(value);
+            } else {
+                tree.delete(value);
+                model.remove(value);
+            }
+        }
+        assertNull(tree.checkInvariants());
+        assertEquals(new ArrayList<>(model), inorder(tree));
+    }
+
+    private static List<Integer> inorder(LUC_AVLTree tree) {
+        List<Integer> values = new ArrayList<>();
+        for (PrimitiveIterator.OfInt it = tree.inorderIterator(); it.hasNext(); )
+            values.add(it.nextInt());
+        return values;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file checks MappedAVLTree against LUC_AVLTree across close and
+ * reopen cycles, and that it refuses a file whose header does not fit it.
+ *
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class MappedAVLTreeTest {
+
+    private static final int HEADER_SIZE     = 32;
+    private static final int RECORD_SIZE     = 16;
+    private static final int INITIAL_RECORDS = 1024;
+    private static final int H_ROOT          = 8;
+
+    @TempDir
+    Path directory;
+
+    // Random updates applied to both trees, with a removeAll now and then
+    private static void update(MappedAVLTree tree, LUC_AVLTree model, Random rnd, int count, int keyRange) {
+        for (int i = 0; i < count; i++) {
+            int value = rnd.nextInt(keyRange) - keyRange / 2;
+            int op = rnd.nextInt(5_000);
+            if (op == 0) {
+                model.removeAll();
+                tree.removeAll();
+            } else if (op % 3 == 0) {
+                model.delete(value);
+                tree.delete(value);
+            } else {
+                model.insert(value);
+                tree.insert(value);
+            }
+        }
+    }
+
+    private static void assertSameTree(LUC_AVLTree model, MappedAVLTree tree) {
+        assertEquals(model.size(), tree.size());
+        assertEquals(model.preorderTraversal(), tree.preorderTraversal());
+    }
+
+    private Path populated(int count) throws IOException {
+        Path file = directory.resolve("tree.avl");
+        try (MappedAVLTree tree = MappedAVLTree.open(file)) {
+            for (int value = 0; value < count; value++)
+                tree.insert(value);
+        }
+        return file;
+    }
+
+    private static void truncate(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+
+    @Test
+    void matchesLUC_AVLTreeAcrossReopens() throws IOException {
+        Path file = directory.resolve("tree.avl");
+        Random rnd = new Random(4);
+        LUC_AVLTree model = new LUC_AVLTree();
+
+        for (int cycle = 0; cycle < 6; cycle++) {
+            try (MappedAVLTree tree = MappedAVLTree.open(file)) {
+                assertSameTree(model, tree);
+                update(tree, model, rnd, 8_000, 6_000);
+                assertSameTree(model, tree);
+            }
+        }
+        try (MappedAVLTree tree = MappedAVLTree.open(file)) {
+            assertSameTree(model, tree);
+        }
+    }
+
+    @Test
+    void growsPastTheInitialMapping() throws IOException {
+        Path file = directory.resolve("tree.avl");
+        LUC_AVLTree model = new LUC_AVLTree();
+        int count = 5 * INITIAL_RECORDS;
+
+        try (MappedAVLTree tree = MappedAVLTree.open(file)) {
+            assertEquals(HEADER_SIZE + (long) INITIAL_RECORDS * RECORD_SIZE, Files.size(file));
+            for (int i = 0; i < count; i++) {
+                int value = (i * 7_919) % count;     // a permutation of [0, count)
+                tree.insert(value);
+                model.insert(value);
+            }
+        }
+        assertEquals(HEADER_SIZE + 8L * INITIAL_RECORDS * RECORD_SIZE, Files.size(file));
+
+        try (MappedAVLTree tree = MappedAVLTree.open(file)) {
+            assertSameTree(model, tree);
+        }
+    }
+
+    @Test
+    void reusesFreedRecordsAfterReopen() throws IOException {
+        Path file = directory.resolve("tree.avl");
+        LUC_AVLTree model = new LUC_AVLTree();
+
+        // Fill the initial mapping exactly, then free half of it
+        try (MappedAVLTree tree = MappedAVLTree.open(file)) {
+            for (int value = 0; value < INITIAL_RECORDS; value++) {
+                tree.insert(value);
+                model.insert(value);
+            }
+            for (int value = 0; value < INITIAL_RECORDS; value += 2) {
+                tree.delete(value);
+                model.delete(value);
+            }
+        }
+        long size = Files.size(file);
+
+        // The free list survives the reopen, so new values fit without growing
+        try (MappedAVLTree tree = MappedAVLTree.open(file)) {
+            assertSameTree(model, tree);
+            for (int value = -1; value >= -INITIAL_RECORDS / 2; value--) {
+                tree.insert(value);
+                model.insert(value);
+            }
+            assertSameTree(model, tree);
+        }
+        assertEquals(size, Files.size(file));
+
+        try (MappedAVLTree tree = MappedAVLTree.open(file)) {
+            assertSameTree(model, tree);
+        }
+    }
+
+    @Test
+    void removeAllEmptiesTheFileForGood() throws IOException {
+        Path file = populated(3_000);
+        long size = Files.size(file);
+
+        try (MappedAVLTree tree = MappedAVLTree.open(file)) {
+            tree.removeAll();
+            assertTrue(tree.checkEmpty());
+        }
+        try (MappedAVLTree tree = MappedAVLTree.open(file)) {
+            assertTrue(tree.checkEmpty());
+            assertEquals(0, tree.size());
+            assertEquals("", tree.preorderTraversal());
+
+            // Records are handed out from the start again, without growing
+            LUC_AVLTree model = new LUC_AVLTree();
+            for (int value = 0; value < 3_000; value++) {
+                tree.insert(-value);
+                model.insert(-value);
+            }
+            assertSameTree(model, tree);
+        }
+        assertEquals(size, Files.size(file));
+    }
+
+    @Test
+    void refusesATruncatedFile() throws IOException {
+        // 3,000 nodes need 4,096 records; keep only the first 2,048
+        Path file = populated(3_000);
+        truncate(file, HEADER_SIZE + 2L * INITIAL_RECORDS * RECORD_SIZE);
+
+        IOException e = assertThrows(IOException.class, () -> MappedAVLTree.open(file));
+        assertTrue(e.getMessage().contains("Corrupt MappedAVLTree header"), e.getMessage());
+    }
+
+    @Test
+    void refusesAFileCopiedShort() throws IOException {
+        Path file = populated(3_000);
+        Path copy = directory.resolve("copy.avl");
+        Files.write(copy, Files.readAllBytes(file));
+        truncate(copy, HEADER_SIZE + 100L * RECORD_SIZE + 7);
+
+        assertThrows(IOException.class, () -> MappedAVLTree.open(copy));
+    }
+
+    @Test
+    void refusesARootPastTheUsedRecords() throws IOException {
+        Path file = populated(10);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, 500), H_ROOT);
+        }
+
+        assertThrows(IOException.class, () -> MappedAVLTree.open(file));
+    }
+
+    @Test
+    void refusesAForeignFile() throws IOException {
+        Path file = directory.resolve("foreign.avl");
+        Files.write(file, new byte[HEADER_SIZE + RECORD_SIZE]);
+
+        assertThrows(IOException.class, () -> MappedAVLTree.open(file));
+    }
+}
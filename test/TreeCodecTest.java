@@ -0,0 +1,170 @@
+/*
+ * *** Mariano Garcia Melo / Section 001 ***
+ *
+ * This java file checks the TreeCodec file format: LUC_AVLTree and
+ * BinaryTree come back from writeTo() / readFrom() exactly as they were,
+ * and LUC_AVLTree.readFrom() refuses every kind of damaged file.
+ *
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+
+class TreeCodecTest {
+
+    private static final int MAX_PATH = 64;
+
+    private interface Saver {
+        void writeTo(WritableByteChannel out) throws IOException;
+    }
+
+    private static byte[] save(Saver tree) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        tree.writeTo(Channels.newChannel(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static ReadableByteChannel channel(byte[] bytes) {
+        return Channels.newChannel(new ByteArrayInputStream(bytes));
+    }
+
+    // A file of the given kind holding 'values' in the given order, as
+    // TreeCodec writes it, whether or not they make a valid tree
+    private static byte[] file(int magic, int... values) throws IOException {
+        return save(out -> {
+            TreeCodec.Writer writer = new TreeCodec.Writer(out, magic, values.length);
+            for (int value : values)
+                writer.writeInt(value);
+            writer.finish();
+        });
+    }
+
+    private static String refusal(byte[] bytes) {
+        IOException e = assertThrows(IOException.class, () -> LUC_AVLTree.readFrom(channel(bytes)));
+        return e.getMessage();
+    }
+
+
+    @Test
+    void avlTreeRoundTrips() throws IOException {
+        Random rnd = new Random(24);
+        for (int size : new int[] { 0, 1, 2, 3, 1_000, 100_000 }) {
+            LUC_AVLTree tree = new LUC_AVLTree();
+            while (tree.size() < size)
+                tree.insert(rnd.nextInt());
+
+            LUC_AVLTree copy = LUC_AVLTree.readFrom(channel(save(tree::writeTo)));
+            assertNull(copy.checkInvariants());
+            assertEquals(tree.size(), copy.size());
+            assertEquals(tree.preorderTraversal(), copy.preorderTraversal());
+        }
+    }
+
+    @Test
+    void binaryTreeRoundTrips() throws IOException {
+        Random rnd = new Random(25);
+        for (int size : new int[] { 0, 1, 2, 3, 1_000, 100_000 }) {
+            BinaryTree tree = new BinaryTree();
+            for (int i = 0; i < size; i++)
+                tree.insert(rnd.nextInt(2_000_001) - 1_000_000);
+            byte[] bytes = save(tree::writeTo);
+
+            for (boolean indexValues : new boolean[] { false, true }) {
+                BinaryTree copy = BinaryTree.readFrom(channel(bytes), indexValues);
+                assertEquals(tree.size(), copy.size());
+                assertEquals(tree.preOrder(), copy.preOrder());
+                if (size > 0) {
+                    assertEquals(tree.findMin(), copy.findMin());
+                    assertEquals(tree.average(), copy.average());
+                    assertEquals(tree.nodesGT(0), copy.nodesGT(0));
+                }
+            }
+        }
+    }
+
+    @Test
+    void extremeDifferencesRoundTrip() throws IOException {
+        // MIN_VALUE - 0 and MAX_VALUE - MIN_VALUE do not fit in an int
+        LUC_AVLTree avl = new LUC_AVLTree();
+        avl.insert(Integer.MIN_VALUE);
+        avl.insert(Integer.MAX_VALUE);
+        assertEquals(Integer.MIN_VALUE + " " + Integer.MAX_VALUE + " ", avl.preorderTraversal());
+        assertEquals(avl.preorderTraversal(),
+                     LUC_AVLTree.readFrom(channel(save(avl::writeTo))).preorderTraversal());
+
+        BinaryTree binary = new BinaryTree();
+        int[] values = { Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, 0, Integer.MAX_VALUE, -1 };
+        for (int value : values)
+            binary.insert(value);
+        assertEquals(binary.preOrder(), BinaryTree.readFrom(channel(save(binary::writeTo))).preOrder());
+
+        // Every difference here is 2^31 or more in magnitude: 5-byte varints
+        TreeCodec.Reader reader = new TreeCodec.Reader(channel(file(TreeCodec.BINARY_TREE, values)),
+                                                       TreeCodec.BINARY_TREE);
+        int[] read = new int[reader.count()];
+        for (int i = 0; i < read.length; i++)
+            read[i] = reader.nextInt();
+        assertArrayEquals(values, read);
+    }
+
+    @Test
+    void refusesATruncatedFile() throws IOException {
+        LUC_AVLTree tree = new LUC_AVLTree();
+        for (int value = 0; value < 1_000; value++)
+            tree.insert(value * 1_000);
+        byte[] bytes = save(tree::writeTo);
+
+        // Cut inside the magic number, the count, and the values
+        for (int length : new int[] { 0, 3, 4, bytes.length / 2, bytes.length - 1 })
+            assertThrows(EOFException.class, () -> LUC_AVLTree.readFrom(channel(Arrays.copyOf(bytes, length))));
+    }
+
+    @Test
+    void refusesTheWrongMagicNumber() throws IOException {
+        assertTrue(refusal(file(TreeCodec.BINARY_TREE, 2, 1, 3)).contains("not a tree file of this kind"));
+        assertThrows(IOException.class,
+                     () -> BinaryTree.readFrom(channel(file(TreeCodec.AVL_TREE, 2, 1, 3))));
+    }
+
+    @Test
+    void refusesValuesOutOfSearchOrder() throws IOException {
+        String expected = "not the pre-order of a search tree";
+        assertTrue(refusal(file(TreeCodec.AVL_TREE, 2, 3, 1)).contains(expected));         // 1 after 2's right subtree
+        assertTrue(refusal(file(TreeCodec.AVL_TREE, 2, 2)).contains(expected));            // duplicate
+        assertTrue(refusal(file(TreeCodec.AVL_TREE, 4, 2, 5, 3, 6)).contains(expected));   // 3 after 4's right child
+    }
+
+    @Test
+    void refusesATreeOutOfBalance() throws IOException {
+        assertTrue(refusal(file(TreeCodec.AVL_TREE, 1, 2, 3)).contains("out of balance"));
+
+        // Subtrees of heights 2 and 0 under the root; every other node is balanced
+        assertTrue(refusal(file(TreeCodec.AVL_TREE, 5, 3, 2, 1, 4, 6)).contains("node 5 is out of balance"));
+    }
+
+    @Test
+    void refusesATreeDeeperThanMaxPath() throws IOException {
+        // A right spine: its first node out of balance is only finished after
+        // the whole spine is linked, so the depth check has to catch it
+        int[] spine = new int[MAX_PATH + 10];
+        for (int i = 0; i < spine.length; i++)
+            spine[i] = i;
+        assertTrue(refusal(file(TreeCodec.AVL_TREE, spine)).contains("deeper than any AVL tree"));
+    }
+}